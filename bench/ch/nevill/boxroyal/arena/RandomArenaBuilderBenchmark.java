@@ -0,0 +1,52 @@
+package ch.nevill.boxroyal.arena;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.nevill.boxroyal.proto.MatchConfig;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RandomArenaBuilderBenchmark {
+  @Param({"20", "100", "500", "1000"})
+  public int arenaSize;
+
+  private RandomArenaBuilder builder;
+  private MatchConfig config;
+  private Arena arena;
+
+  @Setup
+  public void setUp() {
+    builder = new RandomArenaBuilder(arenaSize, arenaSize, 42);
+    MatchConfig.Builder configBuilder = MatchConfig.newBuilder().setMatchId(1);
+    configBuilder.addPlayerBuilder().setId(1);
+    configBuilder.addPlayerBuilder().setId(2);
+    config = configBuilder.build();
+    arena = builder.build(config);
+  }
+
+  @Benchmark
+  public Arena build() {
+    return builder.build(config);
+  }
+
+  @Benchmark
+  public boolean validate() {
+    return ArenaValidator.isValid(arena);
+  }
+}
@@ -0,0 +1,55 @@
+package ch.nevill.boxroyal.server;
+
+import java.util.Random;
+
+import ch.nevill.boxroyal.arena.BoxGrid;
+import ch.nevill.boxroyal.proto.Direction;
+import ch.nevill.boxroyal.proto.MatchState;
+
+/**
+ * Shared fixtures for the benchmarks of the server package.
+ */
+final class Benchmarks {
+  /**
+   * Keeps log output out of the measurements, it is benchmarked separately from simulation.
+   */
+  static final String DISABLE_LOGGING =
+      "-Dorg.apache.commons.logging.Log=org.apache.commons.logging.impl.NoOpLog";
+
+  private Benchmarks() {}
+
+  /**
+   * Creates a state for an empty grid, with soldiers placed away from the east and west edges
+   * so that they can always move one step in either direction.
+   */
+  static MatchState.Builder createState(BoxGrid grid, int players, int soldiersPerPlayer,
+      int bullets, Random random) {
+    MatchState.Builder state = MatchState.newBuilder().setRound(0);
+    state.getConfigBuilder().setMatchId(1);
+    state.getSizeBuilder().setWidth(grid.getWidth()).setHeight(grid.getHeight());
+
+    int soldierId = 0;
+    for (int player = 1; player <= players; player++) {
+      state.getConfigBuilder().addPlayerBuilder().setId(player);
+      for (int i = 0; i < soldiersPerPlayer; i++) {
+        state.addSoldierBuilder()
+            .setSoldierId(soldierId++)
+            .setPlayerId(player)
+            .getPositionBuilder()
+                .setX(1 + random.nextInt(grid.getWidth() - 2))
+                .setY(random.nextInt(grid.getHeight()));
+      }
+    }
+
+    Direction[] directions = Direction.values();
+    for (int i = 0; i < bullets; i++) {
+      state.addBulletBuilder()
+          .setOwnerId(1 + random.nextInt(players))
+          .setDirection(directions[random.nextInt(directions.length)])
+          .getPositionBuilder()
+              .setX(random.nextInt(grid.getWidth()))
+              .setY(random.nextInt(grid.getHeight()));
+    }
+    return state;
+  }
+}
@@ -0,0 +1,90 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ch.nevill.boxroyal.proto.Direction;
+import ch.nevill.boxroyal.proto.Operation;
+import ch.nevill.boxroyal.proto.Soldier;
+import ch.nevill.boxroyal.proto.View;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * In-memory client which answers immediately with one random move per soldier. Views are still
+ * encoded, so that a round costs what it would over a socket minus the network itself.
+ */
+final class FakeClient implements Client {
+  private static final Direction[] DIRECTIONS = Direction.values();
+
+  private final Random random;
+  private final List<Integer> soldierIds = new ArrayList<>();
+  private int round = 0;
+  private long bytesSent = 0;
+
+  FakeClient(Random random) {
+    this.random = random;
+  }
+
+  @Override
+  public ListenableFuture<List<Operation>> receiveOperations() {
+    List<Operation> operations = new ArrayList<>(soldierIds.size());
+    for (int soldierId : soldierIds) {
+      Operation.Builder operation = Operation.newBuilder().setRoundId(round);
+      operation.getMoveBuilder()
+          .setSoldierId(soldierId)
+          .setDirection(DIRECTIONS[random.nextInt(DIRECTIONS.length)]);
+      operations.add(operation.build());
+    }
+    return Futures.immediateFuture(operations);
+  }
+
+  @Override
+  public void transmit(ViewFrame frame) {
+    // Forces the shared encoding, like the first socket client of a round would.
+    bytesSent += frame.newBuffer().remaining();
+
+    View view = frame.getView();
+    if (view.hasPlayerId()) {
+      for (Soldier soldier : view.getState().getSoldierList()) {
+        if (soldier.getPlayerId() == view.getPlayerId()) {
+          soldierIds.add(soldier.getSoldierId());
+        }
+      }
+    }
+    round = view.hasUpdate() ? view.getUpdate().getRound() : view.getState().getRound();
+  }
+
+  @Override
+  public boolean isConnected() {
+    return true;
+  }
+
+  @Override
+  public void addDisconnectListener(Runnable listener) {
+    // Never disconnects.
+  }
+
+  @Override
+  public void close(IOException cause) {
+    // Nothing to close.
+  }
+
+  @Override
+  public String getName() {
+    return "fake";
+  }
+
+  @Override
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return 0;
+  }
+}
@@ -0,0 +1,97 @@
+package ch.nevill.boxroyal.server;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ch.nevill.boxroyal.proto.Direction;
+import ch.nevill.boxroyal.proto.Point;
+import ch.nevill.boxroyal.proto.Size;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class GeometryUtilsBenchmark {
+  private static final int POINTS = 1024;
+  private static final int ARENA_SIZE = 100;
+
+  private final Point[] points = new Point[POINTS];
+  private final Point[] targets = new Point[POINTS];
+  private final Direction[] directions = new Direction[POINTS];
+  private final int[] packedPoints = new int[POINTS];
+  private final int[] packedTargets = new int[POINTS];
+  private final Size area = Size.newBuilder().setWidth(ARENA_SIZE).setHeight(ARENA_SIZE).build();
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    for (int i = 0; i < POINTS; i++) {
+      points[i] = randomPoint(random);
+      // Share a row or column with the start half of the time, like soldiers near a bullet.
+      Point target = randomPoint(random);
+      if (random.nextBoolean()) {
+        target = target.toBuilder().setX(points[i].getX()).build();
+      }
+      targets[i] = target;
+      directions[i] = Direction.values()[random.nextInt(Direction.values().length)];
+      packedPoints[i] = GeometryUtils.pack(points[i]);
+      packedTargets[i] = GeometryUtils.pack(targets[i]);
+    }
+  }
+
+  private static Point randomPoint(Random random) {
+    return Point.newBuilder()
+        .setX(random.nextInt(ARENA_SIZE))
+        .setY(random.nextInt(ARENA_SIZE))
+        .build();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public void moveAndCheckArea(Blackhole blackhole) {
+    for (int i = 0; i < POINTS; i++) {
+      Point moved = GeometryUtils.movePointInDirection(points[i], directions[i]);
+      blackhole.consume(GeometryUtils.isPointInArea(moved, area));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public void isPointInPath(Blackhole blackhole) {
+    for (int i = 0; i < POINTS; i++) {
+      blackhole.consume(GeometryUtils.isPointInPath(points[i], directions[i], targets[i]));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public void packedMoveAndCheckArea(Blackhole blackhole) {
+    for (int i = 0; i < POINTS; i++) {
+      int moved = GeometryUtils.move(packedPoints[i], directions[i]);
+      blackhole.consume(GeometryUtils.isInArea(moved, ARENA_SIZE, ARENA_SIZE));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(POINTS)
+  public void packedIsInPath(Blackhole blackhole) {
+    for (int i = 0; i < POINTS; i++) {
+      blackhole.consume(GeometryUtils.isInPath(packedPoints[i], directions[i], packedTargets[i]));
+    }
+  }
+}
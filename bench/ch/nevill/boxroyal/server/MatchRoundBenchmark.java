@@ -0,0 +1,71 @@
+package ch.nevill.boxroyal.server;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.nevill.boxroyal.arena.RandomArenaBuilder;
+import ch.nevill.boxroyal.proto.MatchConfig;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * End-to-end cost of a match round: collecting turns, simulating and transmitting views. Every
+ * invocation plays a complete match, the score is per round.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.DISABLE_LOGGING)
+public class MatchRoundBenchmark {
+  @Param({"20", "100"})
+  public int arenaSize;
+
+  @Param({"false", "true"})
+  public boolean deltaViews;
+
+  @Param({"0", "100"})
+  public int spectators;
+
+  private final Random random = new Random(42);
+  private MatchBuilder matchBuilder;
+  private MatchSimulator match;
+  private int nextMatchId = 1;
+
+  @Setup
+  public void setUp() {
+    MatchConfig config = MatchConfig.newBuilder().setDeltaViews(deltaViews).build();
+    matchBuilder = new MatchBuilder(new RandomArenaBuilder(arenaSize, arenaSize), config);
+  }
+
+  @Setup(Level.Invocation)
+  public void createMatch() {
+    match = matchBuilder.build(nextMatchId++, ImmutableList.<Client>of(
+        new FakeClient(random), new FakeClient(random)));
+    for (int i = 0; i < spectators; i++) {
+      match.addSpectator(new FakeClient(random));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(MatchSimulator.MAX_ROUNDS)
+  public MatchSimulator round() {
+    match.run();
+    return match;
+  }
+}
@@ -0,0 +1,88 @@
+package ch.nevill.boxroyal.server;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.nevill.boxroyal.arena.RandomArenaBuilder;
+import ch.nevill.boxroyal.proto.MatchConfig;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+/**
+ * Time to match a full lobby of rated clients. Matches are built on tiny arenas, so that the
+ * score is dominated by matchmaking.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.DISABLE_LOGGING)
+public class MatchmakingLobbyBenchmark {
+  private static final int PLAYERS_PER_MATCH = 2;
+  private static final int MAX_RATING = 3000;
+  private static final int BUCKET_WIDTH = 50;
+
+  @Param({"1000", "100000"})
+  public int clientCount;
+
+  private final Random random = new Random(42);
+  private MatchBuilder matchBuilder;
+  private MatchmakingLobby lobby;
+
+  @Setup
+  public void setUp() {
+    MatchConfig config = MatchConfig.newBuilder().setSoldiersPerPlayer(1).build();
+    matchBuilder = new MatchBuilder(new RandomArenaBuilder(4, 4, 42), config);
+  }
+
+  @Setup(Level.Invocation)
+  public void fillLobby() {
+    final Map<Client, Integer> ratings = new IdentityHashMap<>();
+    List<Client> clients = new ArrayList<>(clientCount);
+    for (int i = 0; i < clientCount; i++) {
+      Client client = new FakeClient(random);
+      ratings.put(client, random.nextInt(MAX_RATING));
+      clients.add(client);
+    }
+    lobby = new MatchmakingLobby(matchBuilder, PLAYERS_PER_MATCH,
+        new Function<Client, Integer>() {
+          @Override
+          public Integer apply(Client client) {
+            return ratings.get(client);
+          }
+        }, BUCKET_WIDTH, 0, TimeUnit.SECONDS);
+    lobby.addPlayers(clients);
+  }
+
+  @Benchmark
+  public int matchAll() {
+    int matchId = 1;
+    for (;;) {
+      Optional<ListenableFutureTask<?>> match = lobby.getNextMatch(matchId);
+      if (!match.isPresent()) {
+        return matchId - 1;
+      }
+      ++matchId;
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package ch.nevill.boxroyal.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.nevill.boxroyal.arena.BoxGrid;
+import ch.nevill.boxroyal.proto.Direction;
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.Operation;
+import ch.nevill.boxroyal.proto.Round;
+import ch.nevill.boxroyal.proto.Soldier;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = Benchmarks.DISABLE_LOGGING)
+public class StepSimulatorBenchmark {
+  private static final int ARENA_SIZE = 100;
+  private static final int PLAYERS = 2;
+
+  // Turns and bullets of 1024 and more are processed in parallel.
+  @Param({"3", "30", "300", "3000"})
+  public int soldiersPerPlayer;
+
+  @Param({"0", "10", "100", "1000", "10000"})
+  public int bullets;
+
+  private MatchState.Builder state;
+  private List<List<Operation>> eastTurns;
+  private List<List<Operation>> westTurns;
+  private boolean moveEast = true;
+  private StepSimulator operationSimulator;
+  private StepSimulator postStepSimulator;
+
+  @Setup
+  public void setUp() {
+    Random random = new Random(42);
+    BoxGrid grid = new BoxGrid(ARENA_SIZE, ARENA_SIZE);
+    state = Benchmarks.createState(grid, PLAYERS, soldiersPerPlayer, bullets, random);
+
+    eastTurns = createTurns(Direction.EAST);
+    westTurns = createTurns(Direction.WEST);
+    operationSimulator = new StepSimulator(SimulationState.fromState(state), grid);
+    postStepSimulator = new StepSimulator(SimulationState.fromState(state), grid);
+    postStepSimulator.runPreStep(Round.newBuilder().setRoundId(0));
+  }
+
+  private List<List<Operation>> createTurns(Direction direction) {
+    List<List<Operation>> turns = new ArrayList<>();
+    for (int player = 1; player <= PLAYERS; player++) {
+      List<Operation> turn = new ArrayList<>();
+      for (Soldier.Builder soldier : state.getSoldierBuilderList()) {
+        if (soldier.getPlayerId() == player) {
+          Operation.Builder operation = Operation.newBuilder().setRoundId(0);
+          operation.getMoveBuilder().setSoldierId(soldier.getSoldierId()).setDirection(direction);
+          turn.add(operation.build());
+        }
+      }
+      turns.add(turn);
+    }
+    return turns;
+  }
+
+  /**
+   * Applies one move per soldier, alternating between east and west so that soldiers stay in
+   * place across invocations.
+   */
+  @Benchmark
+  public Round.Builder runPlayerOperations() {
+    Round.Builder round = Round.newBuilder().setRoundId(0);
+    operationSimulator.runPreStep(round);
+    List<List<Operation>> turns = moveEast ? eastTurns : westTurns;
+    moveEast = !moveEast;
+    for (int player = 1; player <= PLAYERS; player++) {
+      operationSimulator.runPlayerOperations(player, turns.get(player - 1));
+    }
+    return round;
+  }
+
+  @Benchmark
+  public void runPostStep() {
+    postStepSimulator.runPostStep();
+  }
+}
@@ -0,0 +1,71 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.nevill.boxroyal.arena.Arena;
+import ch.nevill.boxroyal.arena.RandomArenaBuilder;
+import ch.nevill.boxroyal.proto.MatchConfig;
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.StateUpdate;
+import ch.nevill.boxroyal.proto.View;
+
+/**
+ * Cost of writing the view sent to one player after a round, as done by the transport.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ViewSerializationBenchmark {
+  @Param({"20", "100", "500"})
+  public int arenaSize;
+
+  @Param({"false", "true"})
+  public boolean deltaViews;
+
+  private View view;
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+  @Setup
+  public void setUp() {
+    MatchConfig.Builder config = MatchConfig.newBuilder().setMatchId(1).setDeltaViews(deltaViews);
+    config.addPlayerBuilder().setId(1);
+    config.addPlayerBuilder().setId(2);
+    Arena arena = new RandomArenaBuilder(arenaSize, arenaSize).build(config.build());
+    MatchState state = arena.toMatchState();
+
+    if (deltaViews) {
+      view = View.newBuilder().setUpdate(StateUpdate.newBuilder()
+          .setRound(state.getRound())
+          .addAllSoldier(state.getSoldierList())
+          .addAllBullet(state.getBulletList()))
+          .build();
+    } else {
+      view = View.newBuilder().setState(state).build();
+    }
+  }
+
+  @Benchmark
+  public int writeDelimitedTo() throws IOException {
+    output.reset();
+    view.writeDelimitedTo(output);
+    return output.size();
+  }
+}
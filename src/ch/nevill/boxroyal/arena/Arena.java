@@ -0,0 +1,60 @@
+package ch.nevill.boxroyal.arena;
+
+import ch.nevill.boxroyal.proto.MatchState;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+
+/**
+ * Initial state of a match. The boxes are kept in a {@link BoxGrid} only, the state holds
+ * everything else. The grid must not be changed once the arena was created.
+ */
+public final class Arena {
+  private final BoxGrid grid;
+  private final MatchState state;
+  private final Supplier<SightLines> sightLines;
+
+  public Arena(final BoxGrid grid, MatchState state) {
+    this(grid, state, Suppliers.memoize(new Supplier<SightLines>() {
+      @Override
+      public SightLines get() {
+        return SightLines.create(grid);
+      }
+    }));
+  }
+
+  private Arena(BoxGrid grid, MatchState state, Supplier<SightLines> sightLines) {
+    this.grid = grid;
+    this.state = state;
+    this.sightLines = sightLines;
+  }
+
+  public BoxGrid getGrid() {
+    return grid;
+  }
+
+  public MatchState getState() {
+    return state;
+  }
+
+  /**
+   * Returns the line of sight tables of the grid. They are computed on first use and shared by
+   * all arenas derived with {@link #withState}.
+   */
+  public SightLines getSightLines() {
+    return sightLines.get();
+  }
+
+  public Arena withState(MatchState newState) {
+    return new Arena(grid, newState, sightLines);
+  }
+
+  /**
+   * Returns the state including all boxes, as sent to clients and written to game logs.
+   */
+  public MatchState toMatchState() {
+    MatchState.Builder builder = state.toBuilder().clearBox();
+    grid.writeTo(builder);
+    return builder.build();
+  }
+}
@@ -0,0 +1,84 @@
+package ch.nevill.boxroyal.arena;
+
+import java.util.BitSet;
+
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.Soldier;
+
+/**
+ * Rejects arenas in which soldiers are placed outside the grid or on blocked cells, or cannot
+ * walk to each other.
+ */
+public final class ArenaValidator {
+  private ArenaValidator() {}
+
+  public static boolean isValid(Arena arena) {
+    BoxGrid grid = arena.getGrid();
+    MatchState state = arena.getState();
+    for (Soldier soldier : state.getSoldierList()) {
+      int x = soldier.getPosition().getX();
+      int y = soldier.getPosition().getY();
+      if (!grid.isInside(x, y) || grid.isBlocked(x, y)) {
+        return false;
+      }
+    }
+    if (state.getSoldierCount() < 2) {
+      return true;
+    }
+
+    BitSet reachable = floodFill(grid,
+        state.getSoldier(0).getPosition().getX(), state.getSoldier(0).getPosition().getY());
+    for (Soldier soldier : state.getSoldierList()) {
+      if (!reachable.get(soldier.getPosition().getX()
+          + soldier.getPosition().getY() * grid.getWidth())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the cells reachable from a free cell by moving along rows and columns, by cell index.
+   */
+  static BitSet floodFill(BoxGrid grid, int startX, int startY) {
+    int width = grid.getWidth();
+    int height = grid.getHeight();
+    BitSet visited = new BitSet(grid.getCellCount());
+    // Every cell is queued at most once.
+    int[] queue = new int[grid.getCellCount()];
+    int head = 0;
+    int tail = 0;
+
+    int start = startX + startY * width;
+    visited.set(start);
+    queue[tail++] = start;
+    while (head < tail) {
+      int cell = queue[head++];
+      int x = cell % width;
+      int y = cell / width;
+      if (x > 0) {
+        tail = visit(grid, visited, queue, tail, x - 1, y);
+      }
+      if (x < width - 1) {
+        tail = visit(grid, visited, queue, tail, x + 1, y);
+      }
+      if (y > 0) {
+        tail = visit(grid, visited, queue, tail, x, y - 1);
+      }
+      if (y < height - 1) {
+        tail = visit(grid, visited, queue, tail, x, y + 1);
+      }
+    }
+    return visited;
+  }
+
+  private static int visit(BoxGrid grid, BitSet visited, int[] queue, int tail, int x, int y) {
+    int cell = x + y * grid.getWidth();
+    if (visited.get(cell) || grid.isBlocked(x, y)) {
+      return tail;
+    }
+    visited.set(cell);
+    queue[tail] = cell;
+    return tail + 1;
+  }
+}
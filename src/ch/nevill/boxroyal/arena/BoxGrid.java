@@ -0,0 +1,81 @@
+package ch.nevill.boxroyal.arena;
+
+import java.util.BitSet;
+
+import ch.nevill.boxroyal.proto.Box;
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.MatchStateOrBuilder;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Compact representation of the arena boxes, using one bit per cell instead of one
+ * {@link Box} message per cell. Cells are stored row by row, like the boxes of a
+ * {@link MatchState}.
+ */
+public final class BoxGrid {
+  /** Largest width and height, coordinates of larger grids do not fit into packed points. */
+  public static final int MAX_SIZE = 32767;
+
+  private static final Box BLOCKING_BOX = Box.newBuilder().setBlocking(true).build();
+  private static final Box FREE_BOX = Box.newBuilder().setBlocking(false).build();
+
+  private final int width;
+  private final int height;
+  private final BitSet blocked;
+
+  public BoxGrid(int width, int height) {
+    Preconditions.checkArgument(width > 0 && height > 0, "Invalid grid size %sx%s", width, height);
+    Preconditions.checkArgument(width <= MAX_SIZE && height <= MAX_SIZE,
+        "Grid size %sx%s exceeds %s", width, height, MAX_SIZE);
+    this.width = width;
+    this.height = height;
+    this.blocked = new BitSet(width * height);
+  }
+
+  public static BoxGrid fromState(MatchStateOrBuilder state) {
+    BoxGrid grid = new BoxGrid(state.getSize().getWidth(), state.getSize().getHeight());
+    Preconditions.checkArgument(state.getBoxCount() == grid.getCellCount(),
+        "Expected %s boxes, got %s", grid.getCellCount(), state.getBoxCount());
+    for (int i = 0; i < state.getBoxCount(); i++) {
+      if (state.getBox(i).getBlocking()) {
+        grid.blocked.set(i);
+      }
+    }
+    return grid;
+  }
+
+  /**
+   * Sets the size of the given state and appends one box per cell.
+   */
+  public void writeTo(MatchState.Builder state) {
+    state.getSizeBuilder().setWidth(width).setHeight(height);
+    for (int i = 0; i < getCellCount(); i++) {
+      state.addBox(blocked.get(i) ? BLOCKING_BOX : FREE_BOX);
+    }
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getCellCount() {
+    return width * height;
+  }
+
+  public boolean isInside(int x, int y) {
+    return x >= 0 && y >= 0 && x < width && y < height;
+  }
+
+  public boolean isBlocked(int x, int y) {
+    return blocked.get(x + y * width);
+  }
+
+  public void setBlocked(int x, int y, boolean isBlocked) {
+    blocked.set(x + y * width, isBlocked);
+  }
+}
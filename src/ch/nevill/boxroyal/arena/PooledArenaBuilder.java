@@ -0,0 +1,104 @@
+package ch.nevill.boxroyal.arena;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.nevill.boxroyal.proto.MatchConfig;
+
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+
+/**
+ * Keeps a bounded pool of validated arenas, built ahead of time by a background thread, so that
+ * starting a match does not wait for arena generation. Arenas are pre-built for one template
+ * config; matches with any other config, or arriving while the pool is empty, get an arena built
+ * on the calling thread. Arenas failing {@link ArenaValidator} are never handed out.
+ */
+public class PooledArenaBuilder extends AbstractExecutionThreadService implements ArenaBuilder {
+  private static final Log log = LogFactory.getLog(PooledArenaBuilder.class);
+  private static final int MAX_ATTEMPTS = 100;
+  private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+  private final ArenaBuilder delegate;
+  private final MatchConfig template;
+  private final BlockingQueue<Arena> pool;
+  private final AtomicLong rejectedCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  /**
+   * @param template config of the matches to pre-build arenas for, the match id is ignored
+   */
+  public PooledArenaBuilder(ArenaBuilder delegate, MatchConfig template, int capacity) {
+    this.delegate = delegate;
+    this.template = template.toBuilder().clearMatchId().build();
+    this.pool = new ArrayBlockingQueue<>(capacity);
+  }
+
+  @Override
+  public Arena build(MatchConfig config) {
+    Arena arena = null;
+    if (config.toBuilder().clearMatchId().build().equals(template)) {
+      arena = pool.poll();
+      if (arena == null) {
+        missCount.incrementAndGet();
+      }
+    }
+    if (arena == null) {
+      arena = buildValid(config);
+    }
+    return arena.withState(arena.getState().toBuilder().setConfig(config).build());
+  }
+
+  private Arena buildValid(MatchConfig config) {
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      Arena arena = delegate.build(config);
+      if (ArenaValidator.isValid(arena)) {
+        return arena;
+      }
+      rejectedCount.incrementAndGet();
+    }
+    throw new IllegalStateException(
+        String.format("No valid arena after %d attempts", MAX_ATTEMPTS));
+  }
+
+  @Override
+  protected void run() throws Exception {
+    while (isRunning()) {
+      Arena arena;
+      try {
+        arena = buildValid(template);
+      } catch (RuntimeException e) {
+        log.error("Error building arena for pool, stopped pre-building arenas", e);
+        return;
+      }
+      if (template.getFogOfWar()) {
+        arena.getSightLines();
+      }
+      while (isRunning() && !pool.offer(arena, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        // Pool is full, wait for a match to take an arena.
+      }
+    }
+  }
+
+  public int getPooledCount() {
+    return pool.size();
+  }
+
+  /**
+   * Returns the number of generated arenas which failed validation.
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Returns the number of pooled arenas requested while the pool was empty.
+   */
+  public long getMissCount() {
+    return missCount.get();
+  }
+}
@@ -1,45 +1,85 @@
 package ch.nevill.boxroyal.arena;
 
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
 
 import ch.nevill.boxroyal.proto.MatchConfig;
 import ch.nevill.boxroyal.proto.MatchState;
 import ch.nevill.boxroyal.proto.Player;
-import ch.nevill.boxroyal.proto.Point;
 
+import com.google.common.base.Preconditions;
+
+/**
+ * Builds arenas with randomly blocked cells and randomly placed soldiers. Every arena is
+ * generated from its own seed, so it can be reproduced with {@link #build(MatchConfig, long)}.
+ */
 public class RandomArenaBuilder implements ArenaBuilder {
+  private static final double BLOCKED_FRACTION = 0.1;
+  // Spreads consecutive seeds, as java.util.SplittableRandom does.
+  private static final long SEED_INCREMENT = 0x9e3779b97f4a7c15L;
+
+  // Reseeded for every arena, so that threads building arenas never contend on a generator.
+  private static final ThreadLocal<Random> threadRandom = new ThreadLocal<Random>() {
+    @Override
+    protected Random initialValue() {
+      return new Random();
+    }
+  };
+
   private final int width;
   private final int height;
-  private final Random random;
+  private final AtomicLong nextSeed;
 
   public RandomArenaBuilder(int width, int height) {
+    this(width, height, System.nanoTime());
+  }
+
+  public RandomArenaBuilder(int width, int height, long seed) {
+    Preconditions.checkArgument(width > 0 && height > 0 && width <= BoxGrid.MAX_SIZE
+        && height <= BoxGrid.MAX_SIZE, "Invalid arena size %sx%s", width, height);
     this.width = width;
     this.height = height;
-    this.random = new Random();
+    this.nextSeed = new AtomicLong(seed);
   }
 
   @Override
-  public MatchState build(MatchConfig config) {
+  public Arena build(MatchConfig config) {
+    return build(config, nextSeed.getAndAdd(SEED_INCREMENT));
+  }
+
+  /**
+   * Builds the arena for the given seed. The same seed and config always give the same arena.
+   */
+  public Arena build(MatchConfig config, long seed) {
+    Random random = threadRandom.get();
+    random.setSeed(seed);
+
     MatchState.Builder stateBuilder = MatchState.newBuilder();
-    stateBuilder.setConfig(config);
+    stateBuilder.setConfig(config).setArenaSeed(seed);
+    stateBuilder.getSizeBuilder().setWidth(width).setHeight(height);
 
-    for (int i = 0; i < width*height; ++i) {
-      stateBuilder.addBoxBuilder().setBlocking(random.nextDouble() > 0.9);
+    BoxGrid grid = new BoxGrid(width, height);
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        grid.setBlocked(x, y, random.nextDouble() < BLOCKED_FRACTION);
+      }
     }
 
+    int nextSoldierId = 0;
     for (Player player : config.getPlayerList()) {
       int soldiers = 0;
-      while (soldiers < 3) {
-        Point p = Point.newBuilder()
-            .setX(random.nextInt(width))
-            .setY(random.nextInt(height))
-            .build();
-        if (!stateBuilder.getBox(p.getX() + p.getY() * width).getBlocking()) {
-          stateBuilder.addSoldierBuilder().setPlayerId(player.getId()).setPosition(p);
+      while (soldiers < config.getSoldiersPerPlayer()) {
+        int x = random.nextInt(width);
+        int y = random.nextInt(height);
+        if (!grid.isBlocked(x, y)) {
+          stateBuilder.addSoldierBuilder()
+              .setSoldierId(nextSoldierId++)
+              .setPlayerId(player.getId())
+              .getPositionBuilder().setX(x).setY(y);
           ++soldiers;
         }
       }
     }
-    return stateBuilder.build();
+    return new Arena(grid, stateBuilder.build());
   }
 }
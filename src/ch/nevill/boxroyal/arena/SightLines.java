@@ -0,0 +1,95 @@
+package ch.nevill.boxroyal.arena;
+
+import java.util.Arrays;
+
+/**
+ * Line of sight between the cells of a {@link BoxGrid}. Soldiers see along their row and column
+ * up to the next blocking box, so every free cell belongs to one row segment and one column
+ * segment, and two cells see each other exactly if they share either of them.
+ */
+public final class SightLines {
+  private static final int BLOCKED = -1;
+
+  private final int width;
+  // Segment ids by cell index, BLOCKED for blocked cells.
+  private final int[] rowSegments;
+  private final int[] columnSegments;
+  private final int rowSegmentCount;
+  private final int columnSegmentCount;
+
+  private SightLines(BoxGrid grid) {
+    width = grid.getWidth();
+    int height = grid.getHeight();
+    rowSegments = new int[grid.getCellCount()];
+    columnSegments = new int[grid.getCellCount()];
+    Arrays.fill(rowSegments, BLOCKED);
+    Arrays.fill(columnSegments, BLOCKED);
+
+    int segment = 0;
+    for (int y = 0; y < height; y++) {
+      boolean open = false;
+      for (int x = 0; x < width; x++) {
+        if (grid.isBlocked(x, y)) {
+          open = false;
+          continue;
+        }
+        if (!open) {
+          open = true;
+          ++segment;
+        }
+        rowSegments[x + y * width] = segment - 1;
+      }
+    }
+    rowSegmentCount = segment;
+
+    segment = 0;
+    for (int x = 0; x < width; x++) {
+      boolean open = false;
+      for (int y = 0; y < height; y++) {
+        if (grid.isBlocked(x, y)) {
+          open = false;
+          continue;
+        }
+        if (!open) {
+          open = true;
+          ++segment;
+        }
+        columnSegments[x + y * width] = segment - 1;
+      }
+    }
+    columnSegmentCount = segment;
+  }
+
+  public static SightLines create(BoxGrid grid) {
+    return new SightLines(grid);
+  }
+
+  public int getRowSegmentCount() {
+    return rowSegmentCount;
+  }
+
+  public int getColumnSegmentCount() {
+    return columnSegmentCount;
+  }
+
+  /**
+   * Returns the id of the row segment containing the given cell, or -1 if the cell is blocked.
+   */
+  public int getRowSegment(int x, int y) {
+    return rowSegments[x + y * width];
+  }
+
+  /**
+   * Returns the id of the column segment containing the given cell, or -1 if the cell is blocked.
+   */
+  public int getColumnSegment(int x, int y) {
+    return columnSegments[x + y * width];
+  }
+
+  public boolean canSee(int fromX, int fromY, int toX, int toY) {
+    int from = fromX + fromY * width;
+    int to = toX + toY * width;
+    return (rowSegments[from] != BLOCKED && rowSegments[from] == rowSegments[to])
+        || (columnSegments[from] != BLOCKED && columnSegments[from] == columnSegments[to]);
+  }
+}
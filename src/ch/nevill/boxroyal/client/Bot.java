@@ -0,0 +1,17 @@
+package ch.nevill.boxroyal.client;
+
+import java.util.List;
+
+import ch.nevill.boxroyal.proto.MatchStateOrBuilder;
+import ch.nevill.boxroyal.proto.Operation;
+
+/**
+ * Player implemented in Java, run in-process by the headless match runner.
+ */
+public interface Bot {
+  /**
+   * Returns the operations for the round given by {@code state.getRound()}. The state must not
+   * be retained, it is updated in place between turns.
+   */
+  public List<Operation> playTurn(MatchStateOrBuilder state, int playerId);
+}
@@ -0,0 +1,95 @@
+package ch.nevill.boxroyal.client;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.MatchStateOrBuilder;
+import ch.nevill.boxroyal.proto.Soldier;
+import ch.nevill.boxroyal.proto.StateUpdate;
+import ch.nevill.boxroyal.proto.View;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Rebuilds the full match state on the client side from the views sent by the server, both for
+ * full state views and for delta encoded {@link StateUpdate}s. Under fog of war the state only
+ * holds the soldiers currently in sight.
+ */
+public class MatchStateTracker {
+  private MatchState.Builder state = null;
+  private final Map<Integer, Soldier.Builder> soldiers = new HashMap<>();
+  private int playerId = 0;
+
+  public void update(View view) {
+    if (view.hasPlayerId()) {
+      playerId = view.getPlayerId();
+    }
+    if (view.hasState()) {
+      setState(view.getState());
+    }
+    if (view.hasUpdate()) {
+      applyUpdate(view.getUpdate());
+    }
+  }
+
+  private void setState(MatchState newState) {
+    state = newState.toBuilder();
+    soldiers.clear();
+    for (Soldier.Builder soldier : state.getSoldierBuilderList()) {
+      soldiers.put(soldier.getSoldierId(), soldier);
+    }
+  }
+
+  private void applyUpdate(StateUpdate update) {
+    Preconditions.checkState(state != null, "Received state update before initial state");
+    state.setRound(update.getRound());
+    if (update.getHiddenSoldierIdCount() > 0) {
+      removeSoldiers(update.getHiddenSoldierIdList());
+    }
+    for (Soldier soldier : update.getSoldierList()) {
+      Soldier.Builder known = soldiers.get(soldier.getSoldierId());
+      if (known == null) {
+        soldiers.put(soldier.getSoldierId(), state.addSoldierBuilder().mergeFrom(soldier));
+      } else {
+        known.mergeFrom(soldier);
+      }
+    }
+    state.clearBullet().addAllBullet(update.getBulletList());
+  }
+
+  private void removeSoldiers(List<Integer> soldierIds) {
+    for (int soldierId : soldierIds) {
+      soldiers.remove(soldierId);
+    }
+    List<Soldier> remaining = new ArrayList<>(soldiers.size());
+    for (Soldier.Builder soldier : state.getSoldierBuilderList()) {
+      if (soldiers.containsKey(soldier.getSoldierId())) {
+        remaining.add(soldier.build());
+      }
+    }
+    setState(state.clearSoldier().addAllSoldier(remaining).build());
+  }
+
+  public boolean hasState() {
+    return state != null;
+  }
+
+  /**
+   * Returns a live view of the current state. Callers needing a snapshot should use
+   * {@link #buildState()}.
+   */
+  public MatchStateOrBuilder getState() {
+    return state;
+  }
+
+  public MatchState buildState() {
+    return state.build();
+  }
+
+  public int getPlayerId() {
+    return playerId;
+  }
+}
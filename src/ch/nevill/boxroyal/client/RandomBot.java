@@ -0,0 +1,75 @@
+package ch.nevill.boxroyal.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ch.nevill.boxroyal.proto.Direction;
+import ch.nevill.boxroyal.proto.MatchStateOrBuilder;
+import ch.nevill.boxroyal.proto.Operation;
+import ch.nevill.boxroyal.proto.Point;
+import ch.nevill.boxroyal.proto.Soldier;
+
+/**
+ * Gives every soldier a random legal move, or lets it shoot in a random direction.
+ */
+public class RandomBot implements Bot {
+  private static final double SHOOT_PROBABILITY = 0.2;
+  private static final Direction[] DIRECTIONS = Direction.values();
+
+  private final Random random;
+
+  public RandomBot() {
+    this(new Random());
+  }
+
+  public RandomBot(Random random) {
+    this.random = random;
+  }
+
+  @Override
+  public List<Operation> playTurn(MatchStateOrBuilder state, int playerId) {
+    List<Operation> operations = new ArrayList<>();
+    for (Soldier soldier : state.getSoldierList()) {
+      if (soldier.getPlayerId() != playerId) {
+        continue;
+      }
+
+      Direction direction = DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+      Operation.Builder operation = Operation.newBuilder().setRoundId(state.getRound());
+      if (random.nextDouble() < SHOOT_PROBABILITY || !canMove(state, soldier, direction)) {
+        operation.getShootBuilder().setSoldierId(soldier.getSoldierId()).setDirection(direction);
+      } else {
+        operation.getMoveBuilder().setSoldierId(soldier.getSoldierId()).setDirection(direction);
+      }
+      operations.add(operation.build());
+    }
+    return operations;
+  }
+
+  private static boolean canMove(MatchStateOrBuilder state, Soldier soldier, Direction direction) {
+    Point position = soldier.getPosition();
+    int x = position.getX();
+    int y = position.getY();
+    switch (direction.getNumber()) {
+      case Direction.NORTH_VALUE:
+        ++y;
+        break;
+      case Direction.EAST_VALUE:
+        ++x;
+        break;
+      case Direction.SOUTH_VALUE:
+        --y;
+        break;
+      case Direction.WEST_VALUE:
+        --x;
+        break;
+      default:
+        throw new IllegalArgumentException();
+    }
+    int width = state.getSize().getWidth();
+    int height = state.getSize().getHeight();
+    return x >= 0 && y >= 0 && x < width && y < height
+        && !state.getBox(x + y * width).getBlocking();
+  }
+}
@@ -0,0 +1,94 @@
+package ch.nevill.boxroyal.events;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Writes events to a file in a compact binary format. Every event is a sequence of varints: the
+ * ordinal of its {@link MatchEventType}, the nanoseconds since the previous event, match, round,
+ * player, soldier, x, y, count and nanos. Causes of failures are not written. The file is flushed
+ * whenever the bus runs out of events.
+ *
+ * <p>If writing fails, the error is logged once and no more events are written.
+ */
+public final class BinaryEventWriter implements MatchEventListener, Closeable {
+  private static final Log log = LogFactory.getLog(BinaryEventWriter.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final File file;
+  private final OutputStream stream;
+  private final CodedOutputStream output;
+  private long lastTimestampNanos = 0;
+  private boolean failed = false;
+
+  public BinaryEventWriter(File file) throws IOException {
+    File directory = file.getAbsoluteFile().getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create event directory " + directory);
+    }
+    this.file = file;
+    this.stream = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE);
+    this.output = CodedOutputStream.newInstance(stream);
+  }
+
+  @Override
+  public void onEvent(MatchEvent event) {
+    if (failed) {
+      return;
+    }
+    long elapsed = lastTimestampNanos == 0 ? 0 : event.getTimestampNanos() - lastTimestampNanos;
+    lastTimestampNanos = event.getTimestampNanos();
+    try {
+      output.writeRawVarint32(event.getType().ordinal());
+      output.writeRawVarint64(Math.max(0, elapsed));
+      output.writeRawVarint32(event.getMatchId());
+      output.writeRawVarint32(event.getRound());
+      output.writeRawVarint32(event.getPlayerId());
+      output.writeRawVarint32(event.getSoldierId());
+      output.writeRawVarint32(event.getX());
+      output.writeRawVarint32(event.getY());
+      output.writeRawVarint32(event.getCount());
+      output.writeRawVarint64(event.getNanos());
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  @Override
+  public void onBatchEnd() {
+    if (failed) {
+      return;
+    }
+    try {
+      output.flush();
+      stream.flush();
+    } catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  private void fail(IOException e) {
+    log.error(String.format("Error writing events to %s, stopped writing events", file), e);
+    failed = true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      if (!failed) {
+        output.flush();
+      }
+    } finally {
+      stream.close();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package ch.nevill.boxroyal.events;
+
+/**
+ * Something that happened in a match. Events are slots of the ring of a {@link MatchEventBus},
+ * reused for later events, so listeners must copy any field they keep after handling the event.
+ * Fields not used by the {@link MatchEventType} are 0.
+ */
+public final class MatchEvent {
+  private MatchEventType type;
+  private long timestampNanos;
+  private int matchId;
+  private int round;
+  private int playerId;
+  private int soldierId;
+  private int x;
+  private int y;
+  private int count;
+  private long nanos;
+  private Throwable cause;
+
+  void set(MatchEventType type, int matchId, int round, int playerId, int soldierId, int x, int y,
+      int count, long nanos, Throwable cause) {
+    this.type = type;
+    this.timestampNanos = System.nanoTime();
+    this.matchId = matchId;
+    this.round = round;
+    this.playerId = playerId;
+    this.soldierId = soldierId;
+    this.x = x;
+    this.y = y;
+    this.count = count;
+    this.nanos = nanos;
+    this.cause = cause;
+  }
+
+  void clearCause() {
+    cause = null;
+  }
+
+  public MatchEventType getType() {
+    return type;
+  }
+
+  /**
+   * Returns the time the event was published, as returned by {@link System#nanoTime()}.
+   */
+  public long getTimestampNanos() {
+    return timestampNanos;
+  }
+
+  public int getMatchId() {
+    return matchId;
+  }
+
+  public int getRound() {
+    return round;
+  }
+
+  public int getPlayerId() {
+    return playerId;
+  }
+
+  public int getSoldierId() {
+    return soldierId;
+  }
+
+  public int getX() {
+    return x;
+  }
+
+  public int getY() {
+    return y;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public long getNanos() {
+    return nanos;
+  }
+
+  /**
+   * Returns the exception of a failure, or null.
+   */
+  public Throwable getCause() {
+    return cause;
+  }
+}
@@ -0,0 +1,231 @@
+package ch.nevill.boxroyal.events;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.nevill.boxroyal.metrics.Counter;
+import ch.nevill.boxroyal.metrics.MetricRegistry;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+
+/**
+ * Passes {@link MatchEvent}s from match threads to listeners on a single consumer thread. Events
+ * are written into a ring of preallocated slots: publishing claims a slot with a compare and set,
+ * fills it in and marks it as published, so match threads never lock, allocate or block. If the
+ * consumer falls behind by the whole ring, new events are dropped and counted instead.
+ *
+ * <p>Events are only recorded while the bus is running.
+ */
+public final class MatchEventBus extends AbstractExecutionThreadService {
+  private static final Log log = LogFactory.getLog(MatchEventBus.class);
+  private static final MatchEventBus DEFAULT = new MatchEventBus(1 << 16);
+  private static final Counter DROPPED =
+      MetricRegistry.getDefault().counter("events.dropped");
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final MatchEvent[] slots;
+  private final int mask;
+  // Sequence number of the event in each slot once it is published.
+  private final AtomicLongArray published;
+  private final AtomicLong nextSequence = new AtomicLong();
+  // Sequence number of the next event the consumer handles, slots before it can be reused.
+  private final AtomicLong consumedSequence = new AtomicLong();
+  private final List<MatchEventListener> listeners = new CopyOnWriteArrayList<>();
+  private volatile boolean consuming = false;
+
+  /**
+   * @param capacity number of events in the ring, a power of two
+   */
+  public MatchEventBus(int capacity) {
+    Preconditions.checkArgument(capacity > 0 && Integer.bitCount(capacity) == 1,
+        "Capacity %s is not a power of two", capacity);
+    this.slots = new MatchEvent[capacity];
+    for (int i = 0; i < capacity; i++) {
+      slots[i] = new MatchEvent();
+    }
+    this.mask = capacity - 1;
+    this.published = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      published.set(i, -1);
+    }
+  }
+
+  public static MatchEventBus getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Adds a listener, which receives the events published after it was added.
+   */
+  public void subscribe(MatchEventListener listener) {
+    listeners.add(listener);
+  }
+
+  public void kill(int matchId, int round, int soldierId, int shooterId) {
+    publish(MatchEventType.KILL, matchId, round, shooterId, soldierId, 0, 0, 0, 0, null);
+  }
+
+  public void block(int matchId, int round, int soldierId, int shooterId) {
+    publish(MatchEventType.BLOCK, matchId, round, shooterId, soldierId, 0, 0, 0, 0, null);
+  }
+
+  public void move(int matchId, int round, int playerId, int soldierId, int x, int y) {
+    publish(MatchEventType.MOVE, matchId, round, playerId, soldierId, x, y, 0, 0, null);
+  }
+
+  public void disconnect(int matchId, int round, int playerId) {
+    publish(MatchEventType.DISCONNECT, matchId, round, playerId, 0, 0, 0, 0, 0, null);
+  }
+
+  public void roundComplete(int matchId, int round, int operationCount, long nanos) {
+    publish(MatchEventType.ROUND_COMPLETE, matchId, round, 0, 0, 0, 0, operationCount, nanos,
+        null);
+  }
+
+  public void turnFailed(int matchId, int round, int playerId, Throwable cause) {
+    publish(MatchEventType.TURN_FAILED, matchId, round, playerId, 0, 0, 0, 0, 0, cause);
+  }
+
+  public void transmitFailed(int matchId, int round, int playerId, Throwable cause) {
+    publish(MatchEventType.TRANSMIT_FAILED, matchId, round, playerId, 0, 0, 0, 0, 0, cause);
+  }
+
+  public void operationsDropped(int matchId, int round, int playerId, int count) {
+    publish(MatchEventType.OPERATIONS_DROPPED, matchId, round, playerId, 0, 0, 0, count, 0,
+        null);
+  }
+
+  public void logFailed(int matchId, int round, Throwable cause) {
+    publish(MatchEventType.LOG_FAILED, matchId, round, 0, 0, 0, 0, 0, 0, cause);
+  }
+
+  public void checkpointFailed(int matchId, int round, Throwable cause) {
+    publish(MatchEventType.CHECKPOINT_FAILED, matchId, round, 0, 0, 0, 0, 0, 0, cause);
+  }
+
+  public void spectatorJoined(int matchId, int round, int spectatorCount) {
+    publish(MatchEventType.SPECTATOR_JOINED, matchId, round, 0, 0, 0, 0, spectatorCount, 0,
+        null);
+  }
+
+  public void spectatorDropped(int matchId, int round, Throwable cause) {
+    publish(MatchEventType.SPECTATOR_DROPPED, matchId, round, 0, 0, 0, 0, 0, 0, cause);
+  }
+
+  public void reattach(int matchId, int round, int playerId) {
+    publish(MatchEventType.REATTACH, matchId, round, playerId, 0, 0, 0, 0, 0, null);
+  }
+
+  public void logCloseFailed(int matchId, int round, Throwable cause) {
+    publish(MatchEventType.LOG_CLOSE_FAILED, matchId, round, 0, 0, 0, 0, 0, 0, cause);
+  }
+
+  public void checkpointDeleteFailed(int matchId, int round, Throwable cause) {
+    publish(MatchEventType.CHECKPOINT_DELETE_FAILED, matchId, round, 0, 0, 0, 0, 0, 0, cause);
+  }
+
+  public void matchResumed(int matchId, int round) {
+    publish(MatchEventType.MATCH_RESUMED, matchId, round, 0, 0, 0, 0, 0, 0, null);
+  }
+
+  public void matchAborted(int matchId, int round, int playerId, Throwable cause) {
+    publish(MatchEventType.MATCH_ABORTED, matchId, round, playerId, 0, 0, 0, 0, 0, cause);
+  }
+
+  private void publish(MatchEventType type, int matchId, int round, int playerId, int soldierId,
+      int x, int y, int count, long nanos, Throwable cause) {
+    if (!consuming) {
+      return;
+    }
+    long sequence;
+    do {
+      sequence = nextSequence.get();
+      if (sequence - consumedSequence.get() >= slots.length) {
+        DROPPED.increment();
+        return;
+      }
+    } while (!nextSequence.compareAndSet(sequence, sequence + 1));
+
+    int index = (int) sequence & mask;
+    slots[index].set(type, matchId, round, playerId, soldierId, x, y, count, nanos, cause);
+    // Ordered after the writes to the slot, which the consumer reads after seeing the sequence.
+    published.lazySet(index, sequence);
+  }
+
+  /**
+   * Hands all published events to the listeners, returning the number handled.
+   */
+  private int drain() {
+    long sequence = consumedSequence.get();
+    int handled = 0;
+    while (true) {
+      int index = (int) sequence & mask;
+      if (published.get(index) != sequence) {
+        break;
+      }
+      MatchEvent event = slots[index];
+      for (MatchEventListener listener : listeners) {
+        try {
+          listener.onEvent(event);
+        } catch (RuntimeException e) {
+          log.error(String.format("Error in listener %s", listener), e);
+        }
+      }
+      event.clearCause();
+      ++sequence;
+      ++handled;
+      consumedSequence.lazySet(sequence);
+    }
+    if (handled > 0) {
+      for (MatchEventListener listener : listeners) {
+        try {
+          listener.onBatchEnd();
+        } catch (RuntimeException e) {
+          log.error(String.format("Error in listener %s", listener), e);
+        }
+      }
+    }
+    return handled;
+  }
+
+  @Override
+  protected void startUp() {
+    consuming = true;
+  }
+
+  @Override
+  protected void run() {
+    while (isRunning()) {
+      if (drain() == 0) {
+        LockSupport.parkNanos(IDLE_PARK_NANOS);
+      }
+    }
+  }
+
+  @Override
+  protected void shutDown() {
+    consuming = false;
+    // Slots claimed just before may still be filled in.
+    LockSupport.parkNanos(IDLE_PARK_NANOS);
+    drain();
+    for (MatchEventListener listener : listeners) {
+      if (listener instanceof Closeable) {
+        try {
+          ((Closeable) listener).close();
+        } catch (IOException e) {
+          log.error(String.format("Error closing listener %s", listener), e);
+        }
+      }
+    }
+  }
+}
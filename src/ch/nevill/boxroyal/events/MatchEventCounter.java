@@ -0,0 +1,26 @@
+package ch.nevill.boxroyal.events;
+
+import ch.nevill.boxroyal.metrics.Counter;
+import ch.nevill.boxroyal.metrics.MetricRegistry;
+
+/**
+ * Counts events of every type as {@code events.<type>} metrics, for live statistics.
+ */
+public final class MatchEventCounter implements MatchEventListener {
+  private final Counter[] counts = new Counter[MatchEventType.values().length];
+
+  public MatchEventCounter(MetricRegistry metrics) {
+    for (MatchEventType type : MatchEventType.values()) {
+      counts[type.ordinal()] = metrics.counter("events." + type.name());
+    }
+  }
+
+  @Override
+  public void onEvent(MatchEvent event) {
+    counts[event.getType().ordinal()].increment();
+  }
+
+  @Override
+  public void onBatchEnd() {
+  }
+}
@@ -0,0 +1,14 @@
+package ch.nevill.boxroyal.events;
+
+/**
+ * Subscriber of a {@link MatchEventBus}. All listeners of a bus are called on its consumer thread,
+ * in the order the events were published.
+ */
+public interface MatchEventListener {
+  public void onEvent(MatchEvent event);
+
+  /**
+   * Called once no more events are available for now, for example to flush output.
+   */
+  public void onBatchEnd();
+}
@@ -0,0 +1,94 @@
+package ch.nevill.boxroyal.events;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes events to the log. Messages are only formatted here, on the consumer thread of the bus.
+ * Moves and completed rounds are logged at debug level.
+ */
+public final class MatchEventLogger implements MatchEventListener {
+  private static final Log log = LogFactory.getLog(MatchEventLogger.class);
+
+  @Override
+  public void onEvent(MatchEvent event) {
+    switch (event.getType()) {
+      case KILL:
+        log.info(String.format("Match %d:%d: Soldier %d killed by %d.", event.getMatchId(),
+            event.getRound(), event.getSoldierId(), event.getPlayerId()));
+        break;
+      case BLOCK:
+        log.info(String.format("Match %d:%d: Soldier %d blocked bullet from %d.",
+            event.getMatchId(), event.getRound(), event.getSoldierId(), event.getPlayerId()));
+        break;
+      case MOVE:
+        if (log.isDebugEnabled()) {
+          log.debug(String.format("Match %d:%d: Soldier %d moved to %d,%d.", event.getMatchId(),
+              event.getRound(), event.getSoldierId(), event.getX(), event.getY()));
+        }
+        break;
+      case DISCONNECT:
+        log.info(String.format("Match %d:%d: Player %d disconnected", event.getMatchId(),
+            event.getRound(), event.getPlayerId()));
+        break;
+      case ROUND_COMPLETE:
+        if (log.isDebugEnabled()) {
+          log.debug(String.format("Match %d:%d: Round complete with %d operations in %.2fms",
+              event.getMatchId(), event.getRound(), event.getCount(), event.getNanos() / 1e6));
+        }
+        break;
+      case TURN_FAILED:
+        log.warn(String.format("Match %d:%d: Error receiving turn from player %d",
+            event.getMatchId(), event.getRound(), event.getPlayerId()), event.getCause());
+        break;
+      case TRANSMIT_FAILED:
+        log.warn(String.format("Match %d:%d: Error transmitting result to player %d",
+            event.getMatchId(), event.getRound(), event.getPlayerId()), event.getCause());
+        break;
+      case OPERATIONS_DROPPED:
+        log.info(String.format("Match %d:%d: Dropped %d operations of player %d over the limit",
+            event.getMatchId(), event.getRound(), event.getCount(), event.getPlayerId()));
+        break;
+      case LOG_FAILED:
+        log.error(String.format("Match %d:%d: Error in game log, stopped logging match",
+            event.getMatchId(), event.getRound()), event.getCause());
+        break;
+      case CHECKPOINT_FAILED:
+        log.error(String.format("Match %d:%d: Error writing checkpoint, match can not be resumed",
+            event.getMatchId(), event.getRound()), event.getCause());
+        break;
+      case SPECTATOR_JOINED:
+        log.info(String.format("Match %d:%d: Spectator joined, %d watching", event.getMatchId(),
+            event.getRound(), event.getCount()));
+        break;
+      case SPECTATOR_DROPPED:
+        log.info(String.format("Match %d:%d: Dropping spectator: %s", event.getMatchId(),
+            event.getRound(), event.getCause().getMessage()));
+        break;
+      case REATTACH:
+        log.info(String.format("Match %d:%d: Player %d reattached", event.getMatchId(),
+            event.getRound(), event.getPlayerId()));
+        break;
+      case LOG_CLOSE_FAILED:
+        log.error(String.format("Match %d:%d: Error closing game log", event.getMatchId(),
+            event.getRound()), event.getCause());
+        break;
+      case CHECKPOINT_DELETE_FAILED:
+        log.error(String.format("Match %d:%d: Error deleting checkpoints", event.getMatchId(),
+            event.getRound()), event.getCause());
+        break;
+      case MATCH_RESUMED:
+        log.info(String.format("Match %d:%d: Resumed from checkpoint, waiting for players",
+            event.getMatchId(), event.getRound()));
+        break;
+      case MATCH_ABORTED:
+        log.error(String.format("Match %d:%d: Error transmitting initial state to player %d",
+            event.getMatchId(), event.getRound(), event.getPlayerId()), event.getCause());
+        break;
+    }
+  }
+
+  @Override
+  public void onBatchEnd() {
+  }
+}
@@ -0,0 +1,42 @@
+package ch.nevill.boxroyal.events;
+
+/**
+ * Kinds of {@link MatchEvent}, with the fields each of them sets. All events have a match and
+ * round.
+ */
+public enum MatchEventType {
+  /** A bullet of player {@code playerId} killed soldier {@code soldierId}. */
+  KILL,
+  /** Soldier {@code soldierId} blocked a bullet of its own player {@code playerId}. */
+  BLOCK,
+  /** Soldier {@code soldierId} of player {@code playerId} moved to {@code x}, {@code y}. */
+  MOVE,
+  /** Player {@code playerId} disconnected. */
+  DISCONNECT,
+  /** The round finished with {@code count} logged operations, taking {@code nanos}. */
+  ROUND_COMPLETE,
+  /** The turn of player {@code playerId} could not be received, with the {@code cause}. */
+  TURN_FAILED,
+  /** A view could not be sent to player {@code playerId}, with the {@code cause}. */
+  TRANSMIT_FAILED,
+  /** {@code count} operations of player {@code playerId} were over the turn limit. */
+  OPERATIONS_DROPPED,
+  /** The game log failed with the {@code cause}, the match is no longer logged. */
+  LOG_FAILED,
+  /** Writing a checkpoint failed with the {@code cause}, the match can no longer be resumed. */
+  CHECKPOINT_FAILED,
+  /** A spectator joined, the match now has {@code count} spectators. */
+  SPECTATOR_JOINED,
+  /** A spectator was dropped after a view could not be sent, with the {@code cause}. */
+  SPECTATOR_DROPPED,
+  /** Player {@code playerId} reattached with a new connection. */
+  REATTACH,
+  /** Closing the game log failed with the {@code cause}, it may be incomplete. */
+  LOG_CLOSE_FAILED,
+  /** Deleting the checkpoints failed with the {@code cause}, the match may be resumed again. */
+  CHECKPOINT_DELETE_FAILED,
+  /** The match was resumed from a checkpoint and waits for its players to reattach. */
+  MATCH_RESUMED,
+  /** The start state could not be sent to player {@code playerId}, with the {@code cause}. */
+  MATCH_ABORTED
+}
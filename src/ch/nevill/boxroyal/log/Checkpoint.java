@@ -0,0 +1,69 @@
+package ch.nevill.boxroyal.log;
+
+import ch.nevill.boxroyal.proto.KeyframeIndex;
+import ch.nevill.boxroyal.proto.MatchCheckpoint;
+import ch.nevill.boxroyal.proto.MatchState;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Latest checkpoint of a match, as read from its checkpoint file.
+ */
+public final class Checkpoint {
+  private final MatchCheckpoint header;
+  private final MatchCheckpoint latest;
+  private final ImmutableList<String> playerTokens;
+
+  Checkpoint(MatchCheckpoint header, MatchCheckpoint latest) {
+    this.header = header;
+    this.latest = latest;
+    this.playerTokens = ImmutableList.copyOf(header.getPlayerTokenList());
+  }
+
+  public int getMatchId() {
+    return header.getStartState().getConfig().getMatchId();
+  }
+
+  /**
+   * Returns the full state the match started in as logged, including the boxes.
+   */
+  public MatchState getStartState() {
+    return header.getStartState();
+  }
+
+  /**
+   * Returns the reattach tokens of the players, in the order of the match config.
+   */
+  public ImmutableList<String> getPlayerTokens() {
+    return playerTokens;
+  }
+
+  /**
+   * Returns the state at the start of the latest checkpointed round, without boxes.
+   */
+  public MatchState getState() {
+    return latest.getState();
+  }
+
+  /**
+   * Returns whether the game log can be continued from this checkpoint.
+   */
+  public boolean hasLog() {
+    return header.hasLogLocation() && latest.hasLogLength();
+  }
+
+  public String getLogLocation() {
+    return header.getLogLocation();
+  }
+
+  /**
+   * Returns the length of the game log up to the checkpointed round.
+   */
+  public long getLogLength() {
+    return latest.getLogLength();
+  }
+
+  public KeyframeIndex getKeyframeIndex() {
+    return latest.getKeyframeIndex();
+  }
+}
@@ -0,0 +1,139 @@
+package ch.nevill.boxroyal.log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.nevill.boxroyal.proto.MatchCheckpoint;
+import ch.nevill.boxroyal.proto.MatchState;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Keeps one checkpoint file per running match in a directory, which outlives the server process
+ * so that matches can be resumed after a restart. A file starts with the start state, player
+ * tokens and game log location of the match, followed by the state at the start of every few
+ * rounds with the length of the game log at that point. Files of finished matches are deleted.
+ */
+public class CheckpointStore {
+  private static final Log log = LogFactory.getLog(CheckpointStore.class);
+  private static final int DEFAULT_INTERVAL = 5;
+  private static final String SUFFIX = ".ckpt";
+
+  private static final FileFilter CHECKPOINT_FILES = new FileFilter() {
+    @Override
+    public boolean accept(File file) {
+      return file.isFile() && file.getName().endsWith(SUFFIX);
+    }
+  };
+
+  private final File directory;
+  private final int interval;
+
+  public CheckpointStore(File directory) {
+    this(directory, DEFAULT_INTERVAL);
+  }
+
+  /**
+   * @param interval rounds between checkpoints
+   */
+  public CheckpointStore(File directory, int interval) {
+    this.directory = directory;
+    this.interval = interval;
+  }
+
+  public File getCheckpointFile(int matchId) {
+    return new File(directory, String.format("match-%d%s", matchId, SUFFIX));
+  }
+
+  /**
+   * Creates the checkpoint file of a new match, replacing any earlier one.
+   *
+   * @param startState start state of the match as written to its game log
+   * @param logLocation where the game log is stored, or null if it can not be continued
+   */
+  public CheckpointWriter create(MatchState startState, List<String> playerTokens,
+      String logLocation) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create checkpoint directory " + directory);
+    }
+    CheckpointWriter writer = new CheckpointWriter(
+        getCheckpointFile(startState.getConfig().getMatchId()), false, interval);
+    try {
+      MatchCheckpoint.Builder header = MatchCheckpoint.newBuilder()
+          .setStartState(startState)
+          .addAllPlayerToken(playerTokens);
+      if (logLocation != null) {
+        header.setLogLocation(logLocation);
+      }
+      writer.writeRecord(header.build());
+    } catch (IOException e) {
+      writer.close();
+      throw e;
+    }
+    return writer;
+  }
+
+  /**
+   * Continues the checkpoint file of a resumed match.
+   */
+  public CheckpointWriter append(int matchId) throws IOException {
+    return new CheckpointWriter(getCheckpointFile(matchId), true, interval);
+  }
+
+  /**
+   * Reads the latest checkpoint of every match with a checkpoint file. Unreadable files are
+   * skipped.
+   */
+  public List<Checkpoint> readAll() {
+    List<Checkpoint> checkpoints = new ArrayList<>();
+    File[] files = directory.listFiles(CHECKPOINT_FILES);
+    if (files == null) {
+      return checkpoints;
+    }
+    for (File file : files) {
+      try {
+        checkpoints.add(read(file));
+      } catch (IOException e) {
+        log.warn(String.format("Skipping unreadable checkpoint %s", file), e);
+      }
+    }
+    return checkpoints;
+  }
+
+  /**
+   * Reads the latest complete checkpoint of a file. A record cut off by a crash is ignored.
+   */
+  public static Checkpoint read(File file) throws IOException {
+    try (InputStream input = new BufferedInputStream(new FileInputStream(file))) {
+      MatchCheckpoint header = MatchCheckpoint.parseDelimitedFrom(input);
+      if (header == null || !header.hasStartState()) {
+        throw new InvalidProtocolBufferException("Checkpoint without start state");
+      }
+      MatchCheckpoint latest = MatchCheckpoint.newBuilder()
+          .setState(header.getStartState())
+          .build();
+      while (true) {
+        MatchCheckpoint record;
+        try {
+          record = MatchCheckpoint.parseDelimitedFrom(input);
+        } catch (InvalidProtocolBufferException e) {
+          break;
+        }
+        if (record == null) {
+          break;
+        }
+        latest = record;
+      }
+      return new Checkpoint(header, latest);
+    }
+  }
+}
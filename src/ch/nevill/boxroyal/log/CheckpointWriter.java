@@ -0,0 +1,69 @@
+package ch.nevill.boxroyal.log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import ch.nevill.boxroyal.proto.MatchCheckpoint;
+import ch.nevill.boxroyal.proto.MatchState;
+
+/**
+ * Appends checkpoints of a running match to its checkpoint file. Every checkpoint is flushed to
+ * the operating system right away, but not synced, so it survives the server process but not
+ * necessarily the machine.
+ */
+public class CheckpointWriter implements Closeable {
+  private final File file;
+  private final OutputStream stream;
+  private final int interval;
+
+  CheckpointWriter(File file, boolean append, int interval) throws IOException {
+    this.file = file;
+    this.stream = new BufferedOutputStream(new FileOutputStream(file, append));
+    this.interval = interval;
+  }
+
+  void writeRecord(MatchCheckpoint record) throws IOException {
+    record.writeDelimitedTo(stream);
+    stream.flush();
+  }
+
+  /**
+   * Writes the state at the start of a round, which the match can be resumed from, and how far
+   * the game log was written at that point.
+   *
+   * @param logWriter writer of the game log, or null if the match is not logged any more
+   */
+  public void write(MatchState state, GameLogWriter logWriter) throws IOException {
+    MatchCheckpoint.Builder record = MatchCheckpoint.newBuilder().setState(state);
+    if (logWriter != null) {
+      record.setLogLength(logWriter.getLength()).setKeyframeIndex(logWriter.getKeyframeIndex());
+    }
+    writeRecord(record.build());
+  }
+
+  /**
+   * Returns the number of rounds between checkpoints.
+   */
+  public int getInterval() {
+    return interval;
+  }
+
+  /**
+   * Removes the checkpoints of a finished match.
+   */
+  public void delete() throws IOException {
+    close();
+    if (!file.delete()) {
+      throw new IOException("Unable to delete checkpoint " + file);
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    stream.close();
+  }
+}
@@ -0,0 +1,58 @@
+package ch.nevill.boxroyal.log;
+
+import java.io.File;
+import java.io.IOException;
+
+import ch.nevill.boxroyal.proto.KeyframeIndex;
+
+/**
+ * Keeps one log file per match in a directory.
+ */
+public class DirectoryGameLogStore implements GameLogStore {
+  private static final int DEFAULT_KEYFRAME_INTERVAL = 20;
+
+  private final File directory;
+  private final int keyframeInterval;
+
+  public DirectoryGameLogStore(File directory) {
+    this(directory, DEFAULT_KEYFRAME_INTERVAL);
+  }
+
+  /**
+   * @param keyframeInterval rounds between keyframes, or 0 to write none
+   */
+  public DirectoryGameLogStore(File directory, int keyframeInterval) {
+    this.directory = directory;
+    this.keyframeInterval = keyframeInterval;
+  }
+
+  public File getLogFile(int matchId) {
+    return new File(directory, String.format("match-%d.log", matchId));
+  }
+
+  @Override
+  public GameLogWriter openWriter(int matchId) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create log directory " + directory);
+    }
+    return new FileGameLogWriter(getLogFile(matchId), keyframeInterval);
+  }
+
+  @Override
+  public String getLocation(int matchId) {
+    return getLogFile(matchId).getAbsolutePath();
+  }
+
+  /**
+   * Continues a log file, which may be in the directory of an earlier run.
+   */
+  @Override
+  public GameLogWriter resumeWriter(String location, long length, KeyframeIndex keyframes)
+      throws IOException {
+    return FileGameLogWriter.resume(new File(location), keyframeInterval, length, keyframes);
+  }
+
+  public GameLogReader openReader(int matchId) throws IOException {
+    return GameLogReader.open(getLogFile(matchId));
+  }
+}
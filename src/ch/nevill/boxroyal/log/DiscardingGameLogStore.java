@@ -0,0 +1,57 @@
+package ch.nevill.boxroyal.log;
+
+import ch.nevill.boxroyal.proto.KeyframeIndex;
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.Round;
+
+/**
+ * Store for matches which do not need a log, such as headless bot evaluations.
+ */
+public class DiscardingGameLogStore implements GameLogStore {
+  private static final GameLogWriter DISCARDING_WRITER = new GameLogWriter() {
+    @Override
+    public void writeStartState(MatchState state) {}
+
+    @Override
+    public void writeRound(Round round) {}
+
+    @Override
+    public void writeKeyframe(MatchState state) {}
+
+    @Override
+    public void writeEndState(MatchState state) {}
+
+    @Override
+    public int getKeyframeInterval() {
+      return 0;
+    }
+
+    @Override
+    public long getLength() {
+      return 0;
+    }
+
+    @Override
+    public KeyframeIndex getKeyframeIndex() {
+      return KeyframeIndex.getDefaultInstance();
+    }
+
+    @Override
+    public void close() {}
+  };
+
+  @Override
+  public GameLogWriter openWriter(int matchId) {
+    return DISCARDING_WRITER;
+  }
+
+  @Override
+  public String getLocation(int matchId) {
+    return null;
+  }
+
+  @Override
+  public GameLogWriter resumeWriter(String location, long length, KeyframeIndex keyframes) {
+    return DISCARDING_WRITER;
+  }
+}
@@ -0,0 +1,55 @@
+package ch.nevill.boxroyal.log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import ch.nevill.boxroyal.proto.KeyframeIndex;
+
+/**
+ * Appends a game log to a file. Records are flushed to the operating system as soon as they are
+ * written, so a log survives the server process crashing, and it is synced to disk on close.
+ */
+public class FileGameLogWriter extends StreamGameLogWriter {
+  private final FileOutputStream fileStream;
+
+  public FileGameLogWriter(File file) throws IOException {
+    this(file, 0);
+  }
+
+  public FileGameLogWriter(File file, int keyframeInterval) throws IOException {
+    this(new FileOutputStream(file), keyframeInterval);
+  }
+
+  private FileGameLogWriter(FileOutputStream fileStream, int keyframeInterval, long length,
+      KeyframeIndex keyframes) {
+    super(fileStream, keyframeInterval, length, keyframes);
+    this.fileStream = fileStream;
+  }
+
+  private FileGameLogWriter(FileOutputStream fileStream, int keyframeInterval) {
+    this(fileStream, keyframeInterval, 0, KeyframeIndex.getDefaultInstance());
+  }
+
+  /**
+   * Continues the log of a match interrupted by a crash, cutting off everything written after
+   * the given length.
+   */
+  public static FileGameLogWriter resume(File file, int keyframeInterval, long length,
+      KeyframeIndex keyframes) throws IOException {
+    try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+      if (truncated.length() < length) {
+        throw new IOException(String.format("Log %s is shorter than %d bytes", file, length));
+      }
+      truncated.setLength(length);
+    }
+    return new FileGameLogWriter(new FileOutputStream(file, true), keyframeInterval, length,
+        keyframes);
+  }
+
+  @Override
+  protected void finish() throws IOException {
+    fileStream.getFD().sync();
+  }
+}
@@ -0,0 +1,159 @@
+package ch.nevill.boxroyal.log;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import ch.nevill.boxroyal.proto.GameLog;
+import ch.nevill.boxroyal.proto.KeyframeIndex;
+import ch.nevill.boxroyal.proto.MatchState;
+
+import com.google.common.base.Optional;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Offsets of the keyframes in a game log, sorted by round. Read from the index at the end of a
+ * complete log, logs without one, such as after a crash, are scanned record by record instead.
+ */
+public final class GameLogIndex {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int FOOTER_SIZE =
+      CodedOutputStream.computeFixed64Size(GameLog.KEYFRAME_INDEX_OFFSET_FIELD_NUMBER, 0);
+
+  private final int[] rounds;
+  private final long[] offsets;
+
+  private GameLogIndex(int[] rounds, long[] offsets) {
+    this.rounds = rounds;
+    this.offsets = offsets;
+  }
+
+  public static GameLogIndex read(File file) throws IOException {
+    Optional<KeyframeIndex> index;
+    try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+      index = readFooter(input);
+    }
+    if (index.isPresent()) {
+      return fromIndex(index.get());
+    }
+    try (InputStream input = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+      return scan(input);
+    }
+  }
+
+  private static GameLogIndex fromIndex(KeyframeIndex index) throws IOException {
+    int count = index.getRoundCount();
+    if (index.getOffsetCount() != count) {
+      throw new InvalidProtocolBufferException("Keyframe index has mismatched fields");
+    }
+    int[] rounds = new int[count];
+    long[] offsets = new long[count];
+    for (int i = 0; i < count; i++) {
+      rounds[i] = index.getRound(i);
+      offsets[i] = index.getOffset(i);
+      if (i > 0 && rounds[i] <= rounds[i - 1]) {
+        throw new InvalidProtocolBufferException("Keyframe index is not sorted by round");
+      }
+    }
+    return new GameLogIndex(rounds, offsets);
+  }
+
+  private static Optional<KeyframeIndex> readFooter(RandomAccessFile file) throws IOException {
+    long length = file.length();
+    if (length < FOOTER_SIZE) {
+      return Optional.absent();
+    }
+    byte[] footer = new byte[FOOTER_SIZE];
+    file.seek(length - FOOTER_SIZE);
+    file.readFully(footer);
+    try {
+      CodedInputStream input = CodedInputStream.newInstance(footer);
+      int tag = input.readTag();
+      if (WireFormat.getTagFieldNumber(tag) != GameLog.KEYFRAME_INDEX_OFFSET_FIELD_NUMBER) {
+        return Optional.absent();
+      }
+      long indexOffset = input.readFixed64();
+      if (indexOffset < 0 || indexOffset >= length - FOOTER_SIZE) {
+        return Optional.absent();
+      }
+
+      byte[] record = new byte[(int) (length - FOOTER_SIZE - indexOffset)];
+      file.seek(indexOffset);
+      file.readFully(record);
+      input = CodedInputStream.newInstance(record);
+      tag = input.readTag();
+      if (WireFormat.getTagFieldNumber(tag) != GameLog.KEYFRAME_INDEX_FIELD_NUMBER) {
+        return Optional.absent();
+      }
+      KeyframeIndex.Builder index = KeyframeIndex.newBuilder();
+      input.readMessage(index, ExtensionRegistryLite.getEmptyRegistry());
+      return Optional.of(index.build());
+    } catch (InvalidProtocolBufferException e) {
+      // The end of the file only looked like a footer.
+      return Optional.absent();
+    }
+  }
+
+  private static GameLogIndex scan(InputStream stream) throws IOException {
+    CodedInputStream input = CodedInputStream.newInstance(stream);
+    int[] rounds = new int[16];
+    long[] offsets = new long[16];
+    int count = 0;
+    long offset = 0;
+    try {
+      while (true) {
+        // Counts bytes since the last reset, which also lifts the size limit for every record.
+        offset += input.getTotalBytesRead();
+        input.resetSizeCounter();
+        int tag = input.readTag();
+        if (tag == 0) {
+          break;
+        }
+        if (WireFormat.getTagFieldNumber(tag) != GameLog.KEYFRAME_FIELD_NUMBER) {
+          input.skipField(tag);
+          continue;
+        }
+        MatchState.Builder keyframe = MatchState.newBuilder();
+        input.readMessage(keyframe, ExtensionRegistryLite.getEmptyRegistry());
+        if (count == rounds.length) {
+          rounds = Arrays.copyOf(rounds, count * 2);
+          offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        rounds[count] = keyframe.getRound();
+        offsets[count] = offset;
+        ++count;
+      }
+    } catch (InvalidProtocolBufferException e) {
+      // A record cut off by a crash ends the log.
+    }
+    return new GameLogIndex(Arrays.copyOf(rounds, count), Arrays.copyOf(offsets, count));
+  }
+
+  public int getKeyframeCount() {
+    return rounds.length;
+  }
+
+  public int getRound(int keyframe) {
+    return rounds[keyframe];
+  }
+
+  public long getOffset(int keyframe) {
+    return offsets[keyframe];
+  }
+
+  /**
+   * Returns the last keyframe at or before the given round, or -1 if there is none.
+   */
+  public int findKeyframe(int round) {
+    int position = Arrays.binarySearch(rounds, round);
+    return position >= 0 ? position : -position - 2;
+  }
+}
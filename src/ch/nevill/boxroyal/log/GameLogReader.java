@@ -0,0 +1,156 @@
+package ch.nevill.boxroyal.log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import ch.nevill.boxroyal.proto.GameLog;
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.Round;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Reads a game log written by {@link FileGameLogWriter} one record at a time, so that memory use
+ * does not depend on the number of rounds. A record cut off by a crash ends the log.
+ *
+ * <p>Readers can also start at the offset of a keyframe taken from a {@link GameLogIndex}.
+ */
+public class GameLogReader implements Closeable {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final InputStream stream;
+  private final CodedInputStream input;
+  private MatchState startState = null;
+  private Round pendingRound = null;
+  private MatchState pendingKeyframe = null;
+  private MatchState endState = null;
+  private boolean truncated = false;
+
+  public GameLogReader(InputStream stream) {
+    this.stream = stream;
+    this.input = CodedInputStream.newInstance(stream);
+  }
+
+  public static GameLogReader open(File file) throws IOException {
+    return new GameLogReader(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+  }
+
+  /**
+   * Opens a log at the given offset, which has to be the start of a record.
+   */
+  public static GameLogReader open(File file, long offset) throws IOException {
+    FileInputStream stream = new FileInputStream(file);
+    try {
+      stream.getChannel().position(offset);
+    } catch (IOException e) {
+      stream.close();
+      throw e;
+    }
+    return new GameLogReader(new BufferedInputStream(stream, BUFFER_SIZE));
+  }
+
+  /**
+   * Returns the start state, which precedes all rounds in a log.
+   */
+  public MatchState getStartState() throws IOException {
+    while (startState == null && pendingRound == null && readRecord()) {}
+    if (startState == null) {
+      throw new InvalidProtocolBufferException("Game log has no start state");
+    }
+    return startState;
+  }
+
+  /**
+   * Returns the next round, or null at the end of the log.
+   */
+  public Round readRound() throws IOException {
+    while (pendingRound == null && readRecord()) {}
+    Round round = pendingRound;
+    pendingRound = null;
+    // Keyframes before the round were skipped.
+    pendingKeyframe = null;
+    return round;
+  }
+
+  /**
+   * Returns the next keyframe if it comes before the next round, or null.
+   */
+  public MatchState readKeyframe() throws IOException {
+    while (pendingKeyframe == null && pendingRound == null && readRecord()) {}
+    MatchState keyframe = pendingKeyframe;
+    pendingKeyframe = null;
+    return keyframe;
+  }
+
+  /**
+   * Returns the state after the last round once {@link #readRound()} returned null, or null if
+   * the match did not finish.
+   */
+  public MatchState getEndState() {
+    return endState;
+  }
+
+  /**
+   * Returns whether the log ended in an incomplete record, such as after a crash.
+   */
+  public boolean isTruncated() {
+    return truncated;
+  }
+
+  private boolean readRecord() throws IOException {
+    if (truncated) {
+      return false;
+    }
+    // Size limits apply to the whole stream, logs may be much larger than a single message.
+    input.resetSizeCounter();
+    try {
+      int tag = input.readTag();
+      switch (tag == 0 ? 0 : WireFormat.getTagFieldNumber(tag)) {
+        case 0:
+          return false;
+        case GameLog.START_STATE_FIELD_NUMBER: {
+          MatchState.Builder builder = MatchState.newBuilder();
+          input.readMessage(builder, ExtensionRegistryLite.getEmptyRegistry());
+          startState = builder.build();
+          return true;
+        }
+        case GameLog.ROUND_FIELD_NUMBER: {
+          Round.Builder builder = Round.newBuilder();
+          input.readMessage(builder, ExtensionRegistryLite.getEmptyRegistry());
+          pendingRound = builder.build();
+          return true;
+        }
+        case GameLog.KEYFRAME_FIELD_NUMBER: {
+          MatchState.Builder builder = MatchState.newBuilder();
+          input.readMessage(builder, ExtensionRegistryLite.getEmptyRegistry());
+          pendingKeyframe = builder.build();
+          return true;
+        }
+        case GameLog.END_STATE_FIELD_NUMBER: {
+          MatchState.Builder builder = MatchState.newBuilder();
+          input.readMessage(builder, ExtensionRegistryLite.getEmptyRegistry());
+          endState = builder.build();
+          return true;
+        }
+        default:
+          input.skipField(tag);
+          return true;
+      }
+    } catch (InvalidProtocolBufferException e) {
+      truncated = true;
+      return false;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    stream.close();
+  }
+}
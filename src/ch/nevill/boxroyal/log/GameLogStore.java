@@ -0,0 +1,22 @@
+package ch.nevill.boxroyal.log;
+
+import java.io.IOException;
+
+import ch.nevill.boxroyal.proto.KeyframeIndex;
+
+public interface GameLogStore {
+  public GameLogWriter openWriter(int matchId) throws IOException;
+
+  /**
+   * Returns where the log of a match is stored, to continue it after a restart, or null if logs
+   * of this store can not be continued.
+   */
+  public String getLocation(int matchId);
+
+  /**
+   * Continues a log written up to the given length and keyframes, dropping anything written
+   * after that.
+   */
+  public GameLogWriter resumeWriter(String location, long length, KeyframeIndex keyframes)
+      throws IOException;
+}
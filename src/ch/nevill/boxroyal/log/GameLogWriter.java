@@ -0,0 +1,39 @@
+package ch.nevill.boxroyal.log;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import ch.nevill.boxroyal.proto.KeyframeIndex;
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.Round;
+
+public interface GameLogWriter extends Closeable {
+  public void writeStartState(MatchState state) throws IOException;
+
+  public void writeRound(Round round) throws IOException;
+
+  /**
+   * Writes the state at the start of a round, before the round itself.
+   */
+  public void writeKeyframe(MatchState state) throws IOException;
+
+  /**
+   * Writes the state after the last round of a finished match.
+   */
+  public void writeEndState(MatchState state) throws IOException;
+
+  /**
+   * Returns the number of rounds between keyframes, or 0 if no keyframes are written.
+   */
+  public int getKeyframeInterval();
+
+  /**
+   * Returns the number of bytes written so far, where a continued log resumes.
+   */
+  public long getLength();
+
+  /**
+   * Returns the keyframes written so far.
+   */
+  public KeyframeIndex getKeyframeIndex();
+}
@@ -0,0 +1,114 @@
+package ch.nevill.boxroyal.log;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import ch.nevill.boxroyal.proto.GameLog;
+import ch.nevill.boxroyal.proto.KeyframeIndex;
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.Round;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.MessageLite;
+
+/**
+ * Appends a game log to a stream record by record. Every record is written as a field of
+ * {@link GameLog}, so the complete stream is also a serialized {@code GameLog} message. The
+ * stream is flushed after every record.
+ *
+ * <p>On close, the offsets of all keyframes are written as a {@link KeyframeIndex}, followed by
+ * the offset of the index in a fixed size record at the very end of the stream.
+ */
+public class StreamGameLogWriter implements GameLogWriter {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final BufferedOutputStream bufferedStream;
+  private final CodedOutputStream output;
+  private final int keyframeInterval;
+  private final KeyframeIndex.Builder index;
+  private long position;
+
+  public StreamGameLogWriter(OutputStream stream, int keyframeInterval) {
+    this(stream, keyframeInterval, 0, KeyframeIndex.getDefaultInstance());
+  }
+
+  /**
+   * Continues a log of which the given length with the given keyframes was written before, the
+   * stream appending to it.
+   */
+  protected StreamGameLogWriter(OutputStream stream, int keyframeInterval, long length,
+      KeyframeIndex keyframes) {
+    this.bufferedStream = new BufferedOutputStream(stream, BUFFER_SIZE);
+    this.output = CodedOutputStream.newInstance(bufferedStream);
+    this.keyframeInterval = keyframeInterval;
+    this.position = length;
+    this.index = keyframes.toBuilder();
+  }
+
+  @Override
+  public void writeStartState(MatchState state) throws IOException {
+    writeRecord(GameLog.START_STATE_FIELD_NUMBER, state);
+  }
+
+  @Override
+  public void writeRound(Round round) throws IOException {
+    writeRecord(GameLog.ROUND_FIELD_NUMBER, round);
+  }
+
+  @Override
+  public void writeKeyframe(MatchState state) throws IOException {
+    index.addRound(state.getRound()).addOffset(position);
+    writeRecord(GameLog.KEYFRAME_FIELD_NUMBER, state);
+  }
+
+  @Override
+  public void writeEndState(MatchState state) throws IOException {
+    writeRecord(GameLog.END_STATE_FIELD_NUMBER, state);
+  }
+
+  @Override
+  public int getKeyframeInterval() {
+    return keyframeInterval;
+  }
+
+  @Override
+  public long getLength() {
+    return position;
+  }
+
+  @Override
+  public KeyframeIndex getKeyframeIndex() {
+    return index.build();
+  }
+
+  private void writeRecord(int fieldNumber, MessageLite message) throws IOException {
+    output.writeMessage(fieldNumber, message);
+    position += CodedOutputStream.computeMessageSize(fieldNumber, message);
+    flush();
+  }
+
+  private void flush() throws IOException {
+    output.flush();
+    bufferedStream.flush();
+  }
+
+  /**
+   * Called after the last record was flushed, before the stream is closed.
+   */
+  protected void finish() throws IOException {
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      long indexOffset = position;
+      writeRecord(GameLog.KEYFRAME_INDEX_FIELD_NUMBER, index.build());
+      output.writeFixed64(GameLog.KEYFRAME_INDEX_OFFSET_FIELD_NUMBER, indexOffset);
+      flush();
+      finish();
+    } finally {
+      bufferedStream.close();
+    }
+  }
+}
@@ -0,0 +1,40 @@
+package ch.nevill.boxroyal.metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter which can be incremented from many threads without contention. Every thread adds to
+ * one of several cells, each on its own cache line, and reading sums all of them.
+ */
+public final class Counter implements Metric {
+  private static final int STRIPES =
+      Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2;
+  // Longs per cell, so that cells do not share a cache line.
+  private static final int PADDING = 8;
+
+  private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+  public void increment() {
+    add(1);
+  }
+
+  public void add(long delta) {
+    // Thread ids are handed out in sequence, so threads started together use different cells.
+    int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+    cells.getAndAdd(stripe * PADDING, delta);
+  }
+
+  public long get() {
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += cells.get(i * PADDING);
+    }
+    return sum;
+  }
+
+  @Override
+  public void report(String name, Map<String, Number> snapshot) {
+    snapshot.put(name, get());
+  }
+}
@@ -0,0 +1,77 @@
+package ch.nevill.boxroyal.metrics;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values, such as latencies in nanoseconds or sizes in bytes.
+ * Values are counted in log-linear buckets like an HDR histogram: every power of two is split
+ * into {@value #SUB_BUCKETS} buckets, so reported percentiles are within about 3% of the
+ * recorded values. Recording does not allocate or lock.
+ */
+public final class Histogram implements Metric {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKETS = bucketOf(Long.MAX_VALUE) + 1;
+  private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+  private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final Counter sum = new Counter();
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long value) {
+    value = Math.max(0, value);
+    counts.incrementAndGet(bucketOf(value));
+    sum.add(value);
+    long currentMax = max.get();
+    while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+      currentMax = max.get();
+    }
+  }
+
+  private static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    // Keeps the highest SUB_BUCKET_BITS + 1 bits of the value.
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    int top = (int) (value >>> shift);
+    return (shift + 1) * SUB_BUCKETS + top - SUB_BUCKETS;
+  }
+
+  private static long highestValueOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = bucket / SUB_BUCKETS - 1;
+    long top = SUB_BUCKETS + bucket % SUB_BUCKETS;
+    return ((top + 1) << shift) - 1;
+  }
+
+  @Override
+  public void report(String name, Map<String, Number> snapshot) {
+    long[] bucketCounts = new long[BUCKETS];
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      bucketCounts[i] = counts.get(i);
+      count += bucketCounts[i];
+    }
+    long currentMax = max.get();
+    snapshot.put(name + ".count", count);
+    snapshot.put(name + ".mean", count == 0 ? 0.0 : (double) sum.get() / count);
+    snapshot.put(name + ".max", currentMax);
+
+    int bucket = 0;
+    long seen = 0;
+    for (int i = 0; i < PERCENTILES.length; i++) {
+      long rank = (long) Math.ceil(PERCENTILES[i] / 100 * count);
+      while (bucket < BUCKETS - 1 && seen + bucketCounts[bucket] < rank) {
+        seen += bucketCounts[bucket++];
+      }
+      long value = count == 0 ? 0 : Math.min(highestValueOf(bucket), currentMax);
+      snapshot.put(name + "." + PERCENTILE_NAMES[i], value);
+    }
+  }
+}
@@ -0,0 +1,13 @@
+package ch.nevill.boxroyal.metrics;
+
+import java.util.Map;
+
+/**
+ * A value or set of values kept by a {@link MetricRegistry}.
+ */
+public interface Metric {
+  /**
+   * Adds the current values to a snapshot, all named after the metric.
+   */
+  public void report(String name, Map<String, Number> snapshot);
+}
@@ -0,0 +1,77 @@
+package ch.nevill.boxroyal.metrics;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.google.common.base.Supplier;
+
+/**
+ * Named metrics of the server. Instrumented classes usually get their metrics from the default
+ * registry once, like they get their logs, and keep them in static fields.
+ */
+public final class MetricRegistry {
+  private static final MetricRegistry DEFAULT = new MetricRegistry();
+
+  private final ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+  public static MetricRegistry getDefault() {
+    return DEFAULT;
+  }
+
+  public Counter counter(String name) {
+    return getOrAdd(name, new Counter(), Counter.class);
+  }
+
+  public Histogram histogram(String name) {
+    return getOrAdd(name, new Histogram(), Histogram.class);
+  }
+
+  /**
+   * Reports the value returned by the supplier, which replaces any earlier gauge of the same name.
+   * The supplier is called whenever a snapshot is taken, on the thread taking it.
+   */
+  public void gauge(String name, final Supplier<? extends Number> value) {
+    metrics.put(name, new Metric() {
+      @Override
+      public void report(String name, Map<String, Number> snapshot) {
+        snapshot.put(name, value.get());
+      }
+    });
+  }
+
+  private <T extends Metric> T getOrAdd(String name, T metric, Class<T> type) {
+    Metric existing = metrics.putIfAbsent(name, metric);
+    if (existing == null) {
+      return metric;
+    }
+    if (!type.isInstance(existing)) {
+      throw new IllegalArgumentException(String.format("Metric %s is not a %s",
+          name, type.getSimpleName()));
+    }
+    return type.cast(existing);
+  }
+
+  /**
+   * Returns the current values of all metrics by name.
+   */
+  public SortedMap<String, Number> snapshot() {
+    SortedMap<String, Number> snapshot = new TreeMap<>();
+    for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+      entry.getValue().report(entry.getKey(), snapshot);
+    }
+    return snapshot;
+  }
+
+  /**
+   * Writes a snapshot with one "name value" line per value.
+   */
+  public void writeText(Appendable output) throws IOException {
+    for (Map.Entry<String, Number> entry : snapshot().entrySet()) {
+      output.append(entry.getKey()).append(' ').append(entry.getValue().toString()).append('\n');
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package ch.nevill.boxroyal.metrics;
+
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+
+/**
+ * Exposes every value of a registry snapshot as a read-only JMX attribute. The attributes follow
+ * the metrics registered when the MBean info is requested.
+ */
+final class MetricsMBean implements DynamicMBean {
+  private final MetricRegistry registry;
+
+  MetricsMBean(MetricRegistry registry) {
+    this.registry = registry;
+  }
+
+  @Override
+  public Object getAttribute(String attribute) throws AttributeNotFoundException {
+    Number value = registry.snapshot().get(attribute);
+    if (value == null) {
+      throw new AttributeNotFoundException(attribute);
+    }
+    return value;
+  }
+
+  @Override
+  public AttributeList getAttributes(String[] attributes) {
+    Map<String, Number> snapshot = registry.snapshot();
+    AttributeList values = new AttributeList();
+    for (String attribute : attributes) {
+      Number value = snapshot.get(attribute);
+      if (value != null) {
+        values.add(new Attribute(attribute, value));
+      }
+    }
+    return values;
+  }
+
+  @Override
+  public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+    throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+  }
+
+  @Override
+  public AttributeList setAttributes(AttributeList attributes) {
+    return new AttributeList();
+  }
+
+  @Override
+  public Object invoke(String actionName, Object[] params, String[] signature) {
+    throw new UnsupportedOperationException("No operations on metrics");
+  }
+
+  @Override
+  public MBeanInfo getMBeanInfo() {
+    Map<String, Number> snapshot = registry.snapshot();
+    MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[snapshot.size()];
+    int i = 0;
+    for (Map.Entry<String, Number> entry : snapshot.entrySet()) {
+      attributes[i++] = new MBeanAttributeInfo(entry.getKey(),
+          entry.getValue().getClass().getName(), entry.getKey(), true, false, false);
+    }
+    return new MBeanInfo(getClass().getName(), "Box Royal server metrics", attributes,
+        new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+  }
+}
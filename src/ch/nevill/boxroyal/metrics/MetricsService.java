@@ -0,0 +1,67 @@
+package ch.nevill.boxroyal.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.util.concurrent.AbstractIdleService;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Publishes the metrics of a registry as a JMX MBean, and as text on {@code /metrics} of an HTTP
+ * server bound to the loopback interface.
+ */
+public class MetricsService extends AbstractIdleService {
+  private static final Log log = LogFactory.getLog(MetricsService.class);
+  private static final String OBJECT_NAME = "ch.nevill.boxroyal:type=Metrics";
+
+  private final MetricRegistry registry;
+  private final int port;
+  private final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+  private HttpServer httpServer = null;
+
+  public MetricsService(MetricRegistry registry, int port) {
+    this.registry = registry;
+    this.port = port;
+  }
+
+  @Override
+  protected void startUp() throws Exception {
+    mbeanServer.registerMBean(new MetricsMBean(registry), new ObjectName(OBJECT_NAME));
+
+    httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+    httpServer.createContext("/metrics", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        StringBuilder text = new StringBuilder();
+        registry.writeText(text);
+        byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+          output.write(body);
+        }
+      }
+    });
+    httpServer.start();
+    log.info(String.format("Serving metrics on http://%s:%d/metrics",
+        httpServer.getAddress().getHostString(), httpServer.getAddress().getPort()));
+  }
+
+  @Override
+  protected void shutDown() throws Exception {
+    httpServer.stop(0);
+    mbeanServer.unregisterMBean(new ObjectName(OBJECT_NAME));
+  }
+}
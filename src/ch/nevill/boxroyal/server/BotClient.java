@@ -0,0 +1,70 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.IOException;
+import java.util.List;
+
+import ch.nevill.boxroyal.client.Bot;
+import ch.nevill.boxroyal.client.MatchStateTracker;
+import ch.nevill.boxroyal.proto.Operation;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Client running a {@link Bot} in-process. Views are handed over as objects and turns are
+ * computed on the match thread, nothing is serialized.
+ */
+final class BotClient implements Client {
+  private final Bot bot;
+  private final String name;
+  private final MatchStateTracker tracker = new MatchStateTracker();
+
+  BotClient(Bot bot, String name) {
+    this.bot = bot;
+    this.name = name;
+  }
+
+  @Override
+  public ListenableFuture<List<Operation>> receiveOperations() {
+    try {
+      return Futures.immediateFuture(bot.playTurn(tracker.getState(), tracker.getPlayerId()));
+    } catch (RuntimeException e) {
+      return Futures.immediateFailedFuture(e);
+    }
+  }
+
+  @Override
+  public void transmit(ViewFrame frame) {
+    tracker.update(frame.getView());
+  }
+
+  @Override
+  public boolean isConnected() {
+    return true;
+  }
+
+  @Override
+  public void addDisconnectListener(Runnable listener) {
+    // Never disconnects.
+  }
+
+  @Override
+  public void close(IOException cause) {
+    // Nothing to close.
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public long getBytesSent() {
+    return 0;
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return 0;
+  }
+}
@@ -1,41 +1,48 @@
 package ch.nevill.boxroyal.server;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.Socket;
 import java.util.List;
 
 import ch.nevill.boxroyal.proto.Operation;
-import ch.nevill.boxroyal.proto.Turn;
-import ch.nevill.boxroyal.proto.View;
-
-class Client {
-  private final Socket socket;
-  private final InputStream receiveStream;
-  private final OutputStream transmitStream;
-
-  public Client(Socket s) throws IOException {
-    this.socket = s;
-    // TODO: timeouts, keepalives?
-    this.receiveStream = socket.getInputStream();
-    this.transmitStream = socket.getOutputStream();
-  }
-
-  public List<Operation> receiveOperations() throws IOException {
-    Turn turn = Turn.parseDelimitedFrom(receiveStream);
-    return turn.getOperationList();
-  }
-
-  public void transmitState(View view) throws IOException {
-    view.writeDelimitedTo(transmitStream);
-  }
-
-  public boolean isConnected() {
-    return socket.isConnected();
-  }
-
-  public String getName() {
-    return Integer.toString(hashCode());
-  }
-}
\ No newline at end of file
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+interface Client {
+  /**
+   * Returns the operations of the next turn sent by the client. The future fails with an
+   * {@link IOException} if the connection is lost before a complete turn was received.
+   */
+  public ListenableFuture<List<Operation>> receiveOperations();
+
+  /**
+   * Queues a view for transmission. The same frame is usually sent to several clients, so
+   * implementations must not modify it. They must not block on the network either. A client
+   * which falls behind may be sent the full state of a later frame instead of the ones it missed.
+   */
+  public void transmit(ViewFrame frame) throws IOException;
+
+  public boolean isConnected();
+
+  /**
+   * Runs the listener once the client disconnected, right away if it already is. Listeners run
+   * on the thread noticing the disconnect and must not block.
+   */
+  public void addDisconnectListener(Runnable listener);
+
+  /**
+   * Closes the connection, if the client has one. Disconnect listeners run as if it was lost.
+   */
+  public void close(IOException cause);
+
+  public String getName();
+
+  /**
+   * Returns the number of bytes sent to the client so far, or 0 if it is not remote.
+   */
+  public long getBytesSent();
+
+  /**
+   * Returns the number of bytes received from the client so far, or 0 if it is not remote.
+   */
+  public long getBytesReceived();
+}
@@ -1,7 +1,8 @@
 package ch.nevill.boxroyal.server;
 
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Collections;
 
 import org.apache.commons.logging.Log;
@@ -13,26 +14,29 @@ public class ClientConnectionListenerService extends AbstractExecutionThreadServ
   private static final Log log = LogFactory.getLog(ClientConnectionListenerService.class);
   private static final int SERVICE_PORT = 45678;
 
-  private ServerSocket serverSocket = null;
+  private ServerSocketChannel serverChannel = null;
   private final PlayerEntry playerEntry;
+  private final ClientEventLoop eventLoop;
 
-  public ClientConnectionListenerService(PlayerEntry playerEntry) {
+  public ClientConnectionListenerService(PlayerEntry playerEntry, ClientEventLoop eventLoop) {
     this.playerEntry = playerEntry;
+    this.eventLoop = eventLoop;
   }
 
   @Override
   protected void startUp() throws Exception {
     super.startUp();
-    serverSocket = new ServerSocket(SERVICE_PORT);
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().bind(new InetSocketAddress(SERVICE_PORT));
     log.info(String.format("Listening for clients on %s:%d",
-        serverSocket.getInetAddress(), serverSocket.getLocalPort()));
+        serverChannel.socket().getInetAddress(), serverChannel.socket().getLocalPort()));
   }
 
   @Override
   protected void run() throws Exception {
     while (true) {
-      Socket s = serverSocket.accept();
-      Client c = new Client(s);
+      SocketChannel channel = serverChannel.accept();
+      Client c = eventLoop.register(channel);
       playerEntry.addPlayers(Collections.singleton(c));
     }
   }
@@ -40,7 +44,7 @@ public class ClientConnectionListenerService extends AbstractExecutionThreadServ
   @Override
   protected void shutDown() throws Exception {
     super.shutDown();
-    serverSocket.close();
-    serverSocket = null;
+    serverChannel.close();
+    serverChannel = null;
   }
 }
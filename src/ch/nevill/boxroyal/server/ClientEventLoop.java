@@ -0,0 +1,167 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+
+/**
+ * Selector thread performing all socket I/O for {@link NioClient}s, so that a silent or slow
+ * client never holds on to a match thread while reading or writing.
+ */
+public class ClientEventLoop extends AbstractExecutionThreadService {
+  private static final Log log = LogFactory.getLog(ClientEventLoop.class);
+  private static final int DEFAULT_MAX_QUEUED_BYTES = 1024 * 1024;
+  private static final int DEFAULT_MAX_MESSAGE_BYTES = 256 * 1024;
+
+  private final int maxQueuedBytes;
+  private final OverflowPolicy overflowPolicy;
+  private final int maxMessageBytes;
+  private Selector selector = null;
+  private final Queue<NioClient> pendingRegistrations = new ConcurrentLinkedQueue<>();
+  private final Queue<NioClient> pendingWrites = new ConcurrentLinkedQueue<>();
+  private final Queue<NioClient> pendingReads = new ConcurrentLinkedQueue<>();
+
+  public ClientEventLoop() {
+    this(DEFAULT_MAX_QUEUED_BYTES, OverflowPolicy.COALESCE);
+  }
+
+  /**
+   * @param maxQueuedBytes bytes of views queued for a client before the overflow policy applies
+   */
+  public ClientEventLoop(int maxQueuedBytes, OverflowPolicy overflowPolicy) {
+    this(maxQueuedBytes, overflowPolicy, DEFAULT_MAX_MESSAGE_BYTES);
+  }
+
+  /**
+   * @param maxQueuedBytes bytes of views queued for a client before the overflow policy applies
+   * @param maxMessageBytes size of the largest message accepted from a client, larger ones are
+   *     skipped without reading them into memory
+   */
+  public ClientEventLoop(int maxQueuedBytes, OverflowPolicy overflowPolicy, int maxMessageBytes) {
+    this.maxQueuedBytes = maxQueuedBytes;
+    this.overflowPolicy = overflowPolicy;
+    this.maxMessageBytes = maxMessageBytes;
+  }
+
+  @Override
+  protected void startUp() throws Exception {
+    super.startUp();
+    selector = Selector.open();
+  }
+
+  NioClient register(SocketChannel channel) throws IOException {
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+    channel.socket().setKeepAlive(true);
+    NioClient client = new NioClient(channel, this, maxQueuedBytes, overflowPolicy,
+        maxMessageBytes);
+    pendingRegistrations.add(client);
+    selector.wakeup();
+    return client;
+  }
+
+  void requestWrite(NioClient client) {
+    pendingWrites.add(client);
+    selector.wakeup();
+  }
+
+  /**
+   * Resumes reading from a client whose received messages were at their limit.
+   */
+  void requestRead(NioClient client) {
+    pendingReads.add(client);
+    selector.wakeup();
+  }
+
+  @Override
+  protected void run() throws Exception {
+    while (isRunning()) {
+      selector.select();
+
+      for (NioClient client; (client = pendingRegistrations.poll()) != null; ) {
+        try {
+          client.setKey(client.getChannel().register(selector, SelectionKey.OP_READ, client));
+        } catch (IOException e) {
+          client.close(e);
+          continue;
+        }
+        // Views may have been queued before the registration was processed.
+        handleWritable(client);
+      }
+      for (NioClient client; (client = pendingWrites.poll()) != null; ) {
+        handleWritable(client);
+      }
+      for (NioClient client; (client = pendingReads.poll()) != null; ) {
+        handleReadResumed(client);
+      }
+
+      for (Iterator<SelectionKey> i = selector.selectedKeys().iterator(); i.hasNext(); ) {
+        SelectionKey key = i.next();
+        i.remove();
+        NioClient client = (NioClient) key.attachment();
+        try {
+          if (key.isReadable()) {
+            client.onReadable();
+          }
+          if (key.isValid() && key.isWritable()) {
+            client.onWritable();
+          }
+        } catch (IOException | CancelledKeyException e) {
+          closeClient(client, e);
+        }
+      }
+    }
+  }
+
+  private void handleWritable(NioClient client) {
+    if (!client.isConnected()) {
+      return;
+    }
+    try {
+      client.onWritable();
+    } catch (IOException | CancelledKeyException e) {
+      closeClient(client, e);
+    }
+  }
+
+  private void handleReadResumed(NioClient client) {
+    if (!client.isConnected()) {
+      return;
+    }
+    try {
+      client.onReadResumed();
+    } catch (IOException | CancelledKeyException e) {
+      closeClient(client, e);
+    }
+  }
+
+  private void closeClient(NioClient client, Exception cause) {
+    log.info(String.format("Client %s disconnected: %s", client.getName(), cause.getMessage()));
+    client.close(cause instanceof IOException ? (IOException) cause : new IOException(cause));
+  }
+
+  @Override
+  protected void triggerShutdown() {
+    selector.wakeup();
+  }
+
+  @Override
+  protected void shutDown() throws Exception {
+    super.shutDown();
+    for (SelectionKey key : selector.keys()) {
+      ((NioClient) key.attachment()).close(new IOException("Server shutting down"));
+    }
+    selector.close();
+    selector = null;
+  }
+}
@@ -0,0 +1,159 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.nevill.boxroyal.metrics.Counter;
+import ch.nevill.boxroyal.metrics.MetricRegistry;
+
+import com.google.protobuf.MessageLite;
+
+/**
+ * Connection between a match coordinator and a worker. Messages are length-delimited and read by
+ * the owner of the link on a thread of its own. Sending only queues the message, a writer thread
+ * of the link sends it, so match threads never block on the network. The messages queued are
+ * limited in size: a link whose peer falls further behind is closed right away and treated like a
+ * lost connection.
+ */
+final class ClusterLink {
+  private static final Log log = LogFactory.getLog(ClusterLink.class);
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final long DEFAULT_MAX_QUEUED_BYTES = 64 * 1024 * 1024;
+  private static final Counter OVERFLOWS =
+      MetricRegistry.getDefault().counter("cluster_link.overflows");
+
+  private final Socket socket;
+  private final String name;
+  private final InputStream input;
+  private final OutputStream output;
+  private final BlockingQueue<MessageLite> outbox = new LinkedBlockingQueue<>();
+  private final long maxQueuedBytes;
+  // Serialized size of the messages in the outbox
+  private final AtomicLong queuedBytes = new AtomicLong();
+  private final Thread writer;
+  private volatile boolean closed = false;
+
+  ClusterLink(Socket socket) throws IOException {
+    this(socket, DEFAULT_MAX_QUEUED_BYTES);
+  }
+
+  /**
+   * @param maxQueuedBytes size of the messages queued for sending before the link is closed
+   */
+  ClusterLink(Socket socket, long maxQueuedBytes) throws IOException {
+    this.socket = socket;
+    this.maxQueuedBytes = maxQueuedBytes;
+    this.name = String.valueOf(socket.getRemoteSocketAddress());
+    socket.setTcpNoDelay(true);
+    this.input = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+    this.output = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+    this.writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeMessages();
+      }
+    }, "cluster-link-" + name);
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the stream to parse received messages from with {@code parseDelimitedFrom}, which
+   * returns null once the link is closed.
+   */
+  InputStream getInput() {
+    return input;
+  }
+
+  void send(MessageLite message) throws IOException {
+    if (closed) {
+      throw new IOException(String.format("Link to %s is closed", name));
+    }
+    int size = message.getSerializedSize();
+    if (queuedBytes.addAndGet(size) > maxQueuedBytes) {
+      queuedBytes.addAndGet(-size);
+      OVERFLOWS.increment();
+      abort();
+      throw new IOException(String.format("Link to %s fell behind by more than %d bytes", name,
+          maxQueuedBytes));
+    }
+    outbox.add(message);
+  }
+
+  private void writeMessages() {
+    try {
+      while (!closed) {
+        MessageLite message;
+        try {
+          message = outbox.take();
+        } catch (InterruptedException e) {
+          // Interrupted by close(), the rest of the outbox is still sent, or by abort().
+          continue;
+        }
+        message.writeDelimitedTo(output);
+        queuedBytes.addAndGet(-message.getSerializedSize());
+        // Messages queued meanwhile go out in the same packet.
+        if (outbox.isEmpty()) {
+          output.flush();
+        }
+      }
+      for (MessageLite message; (message = outbox.poll()) != null; ) {
+        message.writeDelimitedTo(output);
+      }
+      output.flush();
+    } catch (IOException e) {
+      if (!closed) {
+        log.warn(String.format("Error sending to %s", name), e);
+      }
+    } finally {
+      closeSocket();
+    }
+  }
+
+  /**
+   * Closes the link after the messages already queued were sent.
+   */
+  void close() {
+    closed = true;
+    writer.interrupt();
+  }
+
+  /**
+   * Closes the link right away, dropping the messages queued. Readers of either end notice it as
+   * a lost connection.
+   */
+  private void abort() {
+    if (closed) {
+      return;
+    }
+    log.warn(String.format("Closing link to %s, it fell behind by more than %d bytes", name,
+        maxQueuedBytes));
+    closed = true;
+    outbox.clear();
+    closeSocket();
+    writer.interrupt();
+  }
+
+  private void closeSocket() {
+    closed = true;
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Already closing, nothing left to do.
+    }
+  }
+}
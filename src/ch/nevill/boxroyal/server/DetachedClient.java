@@ -0,0 +1,53 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.IOException;
+import java.util.List;
+
+import ch.nevill.boxroyal.proto.Operation;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Stands in for a player of a resumed match until it reattached. The player misses every turn
+ * and is sent no views.
+ */
+final class DetachedClient implements Client {
+  @Override
+  public ListenableFuture<List<Operation>> receiveOperations() {
+    return Futures.immediateFailedFuture(new IOException("Player has not reattached"));
+  }
+
+  @Override
+  public void transmit(ViewFrame frame) {
+  }
+
+  @Override
+  public boolean isConnected() {
+    return false;
+  }
+
+  @Override
+  public void addDisconnectListener(Runnable listener) {
+    listener.run();
+  }
+
+  @Override
+  public void close(IOException cause) {
+  }
+
+  @Override
+  public String getName() {
+    return "detached";
+  }
+
+  @Override
+  public long getBytesSent() {
+    return 0;
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return 0;
+  }
+}
@@ -0,0 +1,135 @@
+package ch.nevill.boxroyal.server;
+
+import java.util.Arrays;
+
+import ch.nevill.boxroyal.arena.SightLines;
+import ch.nevill.boxroyal.proto.MatchConfig;
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.StateUpdate;
+
+/**
+ * Filters a {@link SimulationState} down to what each player can see. Visibility is recomputed
+ * once per round from the precomputed {@link SightLines} of the arena, by marking the row and
+ * column segments occupied by every player's soldiers.
+ */
+final class FogOfWar {
+  private final SimulationState state;
+  private final SightLines sightLines;
+  private final int playerCount;
+  // Index of the owning player in the match config, by soldier.
+  private final int[] soldierOwners;
+
+  // Segments seen by each player, indexed by player * segment count + segment.
+  private final boolean[] seenRows;
+  private final boolean[] seenColumns;
+  // Soldiers visible to each player now, and in the last view sent to them.
+  private final boolean[][] visible;
+  private final boolean[][] sent;
+
+  FogOfWar(SimulationState state, SightLines sightLines) {
+    this.state = state;
+    this.sightLines = sightLines;
+
+    MatchConfig config = state.getConfig();
+    this.playerCount = config.getPlayerCount();
+    this.soldierOwners = new int[state.getSoldierCount()];
+    for (int soldier = 0; soldier < state.getSoldierCount(); soldier++) {
+      soldierOwners[soldier] = -1;
+      for (int player = 0; player < playerCount; player++) {
+        if (config.getPlayer(player).getId() == state.getSoldierPlayer(soldier)) {
+          soldierOwners[soldier] = player;
+        }
+      }
+    }
+
+    this.seenRows = new boolean[playerCount * sightLines.getRowSegmentCount()];
+    this.seenColumns = new boolean[playerCount * sightLines.getColumnSegmentCount()];
+    this.visible = new boolean[playerCount][state.getSoldierCount()];
+    this.sent = new boolean[playerCount][state.getSoldierCount()];
+  }
+
+  /**
+   * Recomputes what every player sees, to be called after soldiers moved.
+   */
+  void update() {
+    Arrays.fill(seenRows, false);
+    Arrays.fill(seenColumns, false);
+    int rowSegments = sightLines.getRowSegmentCount();
+    int columnSegments = sightLines.getColumnSegmentCount();
+    for (int soldier = 0; soldier < state.getSoldierCount(); soldier++) {
+      int owner = soldierOwners[soldier];
+      if (owner < 0) {
+        continue;
+      }
+      int x = state.getSoldierX(soldier);
+      int y = state.getSoldierY(soldier);
+      int row = sightLines.getRowSegment(x, y);
+      if (row >= 0) {
+        seenRows[owner * rowSegments + row] = true;
+        seenColumns[owner * columnSegments + sightLines.getColumnSegment(x, y)] = true;
+      }
+    }
+
+    for (int player = 0; player < playerCount; player++) {
+      for (int soldier = 0; soldier < state.getSoldierCount(); soldier++) {
+        visible[player][soldier] = soldierOwners[soldier] == player || canSee(player,
+            state.getSoldierX(soldier), state.getSoldierY(soldier));
+      }
+    }
+  }
+
+  private boolean canSee(int player, int x, int y) {
+    int row = sightLines.getRowSegment(x, y);
+    int column = sightLines.getColumnSegment(x, y);
+    return (row >= 0 && seenRows[player * sightLines.getRowSegmentCount() + row])
+        || (column >= 0 && seenColumns[player * sightLines.getColumnSegmentCount() + column]);
+  }
+
+  private boolean isBulletVisible(int player, int bullet) {
+    return state.getBulletOwner(bullet) == state.getConfig().getPlayer(player).getId()
+        || canSee(player, state.getBulletX(bullet), state.getBulletY(bullet));
+  }
+
+  /**
+   * Writes the state visible to the player at the given index in the match config, without
+   * boxes.
+   */
+  void writeState(int player, MatchState.Builder builder) {
+    builder.setConfig(state.getConfig())
+        .setRound(state.getRound())
+        .getSizeBuilder().setWidth(state.getWidth()).setHeight(state.getHeight());
+    for (int soldier = 0; soldier < state.getSoldierCount(); soldier++) {
+      if (visible[player][soldier]) {
+        state.writeSoldier(soldier, builder.addSoldierBuilder());
+      }
+    }
+    for (int bullet = 0; bullet < state.getBulletCount(); bullet++) {
+      if (isBulletVisible(player, bullet)) {
+        state.writeBullet(bullet, builder.addBulletBuilder());
+      }
+    }
+    System.arraycopy(visible[player], 0, sent[player], 0, state.getSoldierCount());
+  }
+
+  /**
+   * Writes the changes visible to a player since the last state or update written for them.
+   */
+  void writeUpdate(int player, StateUpdate.Builder update) {
+    update.setRound(state.getRound());
+    for (int soldier = 0; soldier < state.getSoldierCount(); soldier++) {
+      if (visible[player][soldier]) {
+        if (!sent[player][soldier] || state.hasSoldierMoved(soldier)) {
+          state.writeSoldier(soldier, update.addSoldierBuilder());
+        }
+      } else if (sent[player][soldier]) {
+        update.addHiddenSoldierId(state.getSoldierId(soldier));
+      }
+    }
+    for (int bullet = 0; bullet < state.getBulletCount(); bullet++) {
+      if (isBulletVisible(player, bullet)) {
+        state.writeBullet(bullet, update.addBulletBuilder());
+      }
+    }
+    System.arraycopy(visible[player], 0, sent[player], 0, state.getSoldierCount());
+  }
+}
@@ -0,0 +1,233 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.nevill.boxroyal.arena.Arena;
+import ch.nevill.boxroyal.arena.BoxGrid;
+import ch.nevill.boxroyal.arena.RandomArenaBuilder;
+import ch.nevill.boxroyal.log.GameLogReader;
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.Round;
+
+import com.google.common.base.Optional;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Checks stored game logs by simulating every match again from its start state and logged
+ * operations. The recomputed operation errors, keyframes and end state have to match the log
+ * exactly, and arenas with a seed are generated again. Logs are verified in parallel.
+ */
+public class GameLogVerifier {
+  private static final Log log = LogFactory.getLog(GameLogVerifier.class);
+
+  private static final FileFilter LOG_FILES = new FileFilter() {
+    @Override
+    public boolean accept(File file) {
+      return file.isDirectory() || file.getName().endsWith(".log");
+    }
+  };
+
+  private final ForkJoinPool pool;
+
+  public GameLogVerifier() {
+    this(new ForkJoinPool());
+  }
+
+  public GameLogVerifier(ForkJoinPool pool) {
+    this.pool = pool;
+  }
+
+  public static final class Result {
+    private final File file;
+    private final int rounds;
+    private final Optional<String> mismatch;
+    private final boolean finished;
+
+    Result(File file, int rounds, Optional<String> mismatch, boolean finished) {
+      this.file = file;
+      this.rounds = rounds;
+      this.mismatch = mismatch;
+      this.finished = finished;
+    }
+
+    public File getFile() {
+      return file;
+    }
+
+    /**
+     * Returns the number of rounds simulated, up to the first mismatch.
+     */
+    public int getRounds() {
+      return rounds;
+    }
+
+    /**
+     * Returns a description of the first difference to the log.
+     */
+    public Optional<String> getMismatch() {
+      return mismatch;
+    }
+
+    /**
+     * Returns whether the log has an end state, which is missing if the server stopped during
+     * the match.
+     */
+    public boolean isFinished() {
+      return finished;
+    }
+  }
+
+  public ForkJoinTask<Result> submit(final File file) {
+    return pool.submit(new Callable<Result>() {
+      @Override
+      public Result call() throws IOException {
+        return verify(file);
+      }
+    });
+  }
+
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  public static Result verify(File file) throws IOException {
+    try (GameLogReader reader = GameLogReader.open(file)) {
+      MatchState startState = reader.getStartState();
+      Optional<String> arenaMismatch = checkArena(startState);
+      if (arenaMismatch.isPresent()) {
+        return new Result(file, 0, arenaMismatch, false);
+      }
+
+      LogReplay replay = new LogReplay(startState, BoxGrid.fromState(startState));
+      int rounds = 0;
+      while (true) {
+        MatchState keyframe = reader.readKeyframe();
+        if (keyframe != null && !keyframe.equals(replay.getState().toMatchState())) {
+          return new Result(file, rounds, Optional.of(String.format(
+              "Keyframe of round %d differs", keyframe.getRound())), false);
+        }
+
+        Round logged = reader.readRound();
+        if (logged == null) {
+          break;
+        }
+        Round recomputed;
+        try {
+          recomputed = replay.replayRound(logged);
+        } catch (InvalidProtocolBufferException e) {
+          return new Result(file, rounds, Optional.of(e.getMessage()), false);
+        }
+        if (!recomputed.equals(logged)) {
+          return new Result(file, rounds, Optional.of(describeDifference(logged, recomputed)),
+              false);
+        }
+        ++rounds;
+      }
+
+      MatchState endState = reader.getEndState();
+      if (endState != null && !endState.equals(replay.getState().toMatchState())) {
+        return new Result(file, rounds, Optional.of("End state differs"), true);
+      }
+      return new Result(file, rounds, Optional.<String>absent(), endState != null);
+    }
+  }
+
+  private static Optional<String> checkArena(MatchState startState) {
+    if (!startState.hasArenaSeed()) {
+      return Optional.absent();
+    }
+    RandomArenaBuilder builder = new RandomArenaBuilder(
+        startState.getSize().getWidth(), startState.getSize().getHeight());
+    Arena arena = builder.build(startState.getConfig(), startState.getArenaSeed());
+    MatchState expected = arena.toMatchState();
+    if (!expected.getSoldierList().equals(startState.getSoldierList())
+        || !expected.getBoxList().equals(startState.getBoxList())) {
+      return Optional.of(String.format("Arena differs from seed %d", startState.getArenaSeed()));
+    }
+    return Optional.absent();
+  }
+
+  private static String describeDifference(Round logged, Round recomputed) {
+    int count = Math.min(logged.getOperationCount(), recomputed.getOperationCount());
+    for (int i = 0; i < count; i++) {
+      if (!logged.getOperation(i).equals(recomputed.getOperation(i))) {
+        return String.format("Round %d: operation %d of player %d logged as %s, recomputed as %s",
+            logged.getRoundId(), i, logged.getOperation(i).getPlayerId(),
+            logged.getOperation(i).getError(), recomputed.getOperation(i).getError());
+      }
+    }
+    return String.format("Round %d: %d operations logged, %d recomputed",
+        logged.getRoundId(), logged.getOperationCount(), recomputed.getOperationCount());
+  }
+
+  private static void collectLogs(File file, List<File> logs) {
+    if (!file.isDirectory()) {
+      logs.add(file);
+      return;
+    }
+    File[] children = file.listFiles(LOG_FILES);
+    if (children != null) {
+      for (File child : children) {
+        collectLogs(child, logs);
+      }
+    }
+  }
+
+  /**
+   * Arguments: log files or directories to search for them
+   */
+  public static void main(String[] args) {
+    List<File> logs = new ArrayList<>();
+    for (String arg : args) {
+      collectLogs(new File(arg), logs);
+    }
+
+    GameLogVerifier verifier = new GameLogVerifier();
+    long start = System.nanoTime();
+    List<ForkJoinTask<Result>> tasks = new ArrayList<>(logs.size());
+    for (File file : logs) {
+      tasks.add(verifier.submit(file));
+    }
+
+    long rounds = 0;
+    int mismatched = 0;
+    int unfinished = 0;
+    int failed = 0;
+    for (int i = 0; i < tasks.size(); i++) {
+      Result result;
+      try {
+        result = tasks.get(i).join();
+      } catch (RuntimeException e) {
+        log.error(String.format("Error verifying %s", logs.get(i)), e);
+        ++failed;
+        continue;
+      }
+      rounds += result.getRounds();
+      if (result.getMismatch().isPresent()) {
+        log.warn(String.format("%s: %s", result.getFile(), result.getMismatch().get()));
+        ++mismatched;
+      } else if (!result.isFinished()) {
+        ++unfinished;
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    verifier.shutdown();
+
+    log.info(String.format(
+        "Verified %d logs with %d rounds in %.2fs: %d mismatched, %d unfinished, %d unreadable",
+        logs.size(), rounds, seconds, mismatched, unfinished, failed));
+    if (mismatched > 0 || failed > 0) {
+      System.exit(1);
+    }
+  }
+}
@@ -2,61 +2,100 @@ package ch.nevill.boxroyal.server;
 
 import ch.nevill.boxroyal.proto.Direction;
 import ch.nevill.boxroyal.proto.Point;
-import ch.nevill.boxroyal.proto.Point.Builder;
 import ch.nevill.boxroyal.proto.Size;
 
+/**
+ * Grid geometry. The methods on packed points work on plain ints and do not allocate, the ones
+ * taking protobuf messages are adapters for code outside the simulation.
+ *
+ * <p>A packed point is {@code y * 65536 + x}, with both coordinates in [-32768, 32767]. Moving
+ * a point is then a single addition, also for negative coordinates.
+ */
 public class GeometryUtils {
-  static Point movePointInDirection(Point point, Direction direction) {
-    return movePointInDirection(point, direction, 1);
+  private static final int Y_SHIFT = 16;
+
+  // Packed offset of a single step, indexed by direction number.
+  private static final int[] STEP = new int[Direction.values().length];
+  static {
+    STEP[Direction.NORTH_VALUE] = pack(0, 1);
+    STEP[Direction.EAST_VALUE] = pack(1, 0);
+    STEP[Direction.SOUTH_VALUE] = pack(0, -1);
+    STEP[Direction.WEST_VALUE] = pack(-1, 0);
   }
 
-  static Point movePointInDirection(Point point, Direction direction, int by) {
-    Builder builder = point.toBuilder();
-    switch (direction.getNumber()) {
-      case Direction.NORTH_VALUE:
-        builder.setY(point.getY() + by);
-        break;
-      case Direction.EAST_VALUE:
-        builder.setX(point.getX() + by);
-        break;
-      case Direction.SOUTH_VALUE:
-        builder.setY(point.getY() - by);
-        break;
-      case Direction.WEST_VALUE:
-        builder.setX(point.getX() - by);
-        break;
-      default:
-        throw new IllegalArgumentException();
-    }
-    return builder.build();
+  static int pack(int x, int y) {
+    return (y << Y_SHIFT) + x;
   }
 
-  static boolean isPointInArea(Point point, Size area) {
-    return point.getX() >= 0
-        && point.getY() >= 0
-        && point.getX() < area.getWidth()
-        && point.getY() < area.getHeight();
+  static int getX(int point) {
+    return (short) point;
   }
 
-  static boolean isPointInPath(Point start, Direction direction, Point target) {
-    if (start.getX() != target.getX() && start.getY() != target.getY()) {
+  static int getY(int point) {
+    return (point - getX(point)) >> Y_SHIFT;
+  }
+
+  static int move(int point, Direction direction) {
+    return point + STEP[direction.getNumber()];
+  }
+
+  static int move(int point, Direction direction, int by) {
+    return point + STEP[direction.getNumber()] * by;
+  }
+
+  static boolean isInArea(int point, int width, int height) {
+    int x = getX(point);
+    int y = getY(point);
+    return x >= 0 && y >= 0 && x < width && y < height;
+  }
+
+  static boolean isInPath(int start, Direction direction, int target) {
+    int startX = getX(start);
+    int startY = getY(start);
+    int targetX = getX(target);
+    int targetY = getY(target);
+    if (startX != targetX && startY != targetY) {
       return false;
     }
-    if (start.getX() == target.getX() && start.getY() == target.getY()) {
+    if (start == target) {
       return true;
     }
 
     switch (direction.getNumber()) {
       case Direction.NORTH_VALUE:
-        return target.getY() > start.getY();
+        return targetY > startY;
       case Direction.EAST_VALUE:
-        return target.getX() > start.getX();
+        return targetX > startX;
       case Direction.SOUTH_VALUE:
-        return target.getY() < start.getY();
+        return targetY < startY;
       case Direction.WEST_VALUE:
-        return target.getX() < start.getX();
+        return targetX < startX;
       default:
         throw new IllegalArgumentException();
     }
   }
+
+  static int pack(Point point) {
+    return pack(point.getX(), point.getY());
+  }
+
+  static Point toPoint(int point) {
+    return Point.newBuilder().setX(getX(point)).setY(getY(point)).build();
+  }
+
+  static Point movePointInDirection(Point point, Direction direction) {
+    return movePointInDirection(point, direction, 1);
+  }
+
+  static Point movePointInDirection(Point point, Direction direction, int by) {
+    return toPoint(move(pack(point), direction, by));
+  }
+
+  static boolean isPointInArea(Point point, Size area) {
+    return isInArea(pack(point), area.getWidth(), area.getHeight());
+  }
+
+  static boolean isPointInPath(Point start, Direction direction, Point target) {
+    return isInPath(pack(start), direction, pack(target));
+  }
 }
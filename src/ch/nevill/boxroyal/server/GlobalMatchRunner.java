@@ -1,62 +1,232 @@
 package ch.nevill.boxroyal.server;
 
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
-import ch.nevill.boxroyal.arena.ArenaBuilder;
+import ch.nevill.boxroyal.arena.PooledArenaBuilder;
 import ch.nevill.boxroyal.arena.RandomArenaBuilder;
+import ch.nevill.boxroyal.events.BinaryEventWriter;
+import ch.nevill.boxroyal.events.MatchEventBus;
+import ch.nevill.boxroyal.events.MatchEventCounter;
+import ch.nevill.boxroyal.events.MatchEventLogger;
+import ch.nevill.boxroyal.log.Checkpoint;
+import ch.nevill.boxroyal.log.CheckpointStore;
+import ch.nevill.boxroyal.log.DirectoryGameLogStore;
+import ch.nevill.boxroyal.log.GameLogStore;
+import ch.nevill.boxroyal.metrics.MetricRegistry;
+import ch.nevill.boxroyal.metrics.MetricsService;
+import ch.nevill.boxroyal.proto.MatchConfig;
 
 import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
 import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.MoreExecutors;
 
 public class GlobalMatchRunner implements Runnable {
-  private static final int MAX_CONCURRENT_MATCHES = 10;
-  private static final int WORK_CHECK_INTERVAL = 100;
+  private static final int MAX_CONCURRENT_MATCHES = 4096;
+  private static final long SAMPLE_INTERVAL = 1000;
+  private static final long IDLE_THREAD_TIMEOUT = 60;
+  private static final String LOG_DIRECTORY = "logs";
+  private static final String CHECKPOINT_DIRECTORY = "checkpoints";
+  private static final int PLAYERS_PER_MATCH = 2;
+  private static final int ARENA_POOL_SIZE = 64;
+  private static final int METRICS_PORT = 45680;
 
   private final MatchScheduler rootScheduler;
+  private final MatchConcurrencyController concurrency;
   private final ThreadPoolExecutor matchExecutor;
-  private int nextMatchId = 1;
+  private final AtomicInteger activeMatches = new AtomicInteger();
+  private final Lock workLock = new ReentrantLock();
+  private final Condition workSignal = workLock.newCondition();
+  private boolean workPending = false;
+  private int nextMatchId;
 
   public GlobalMatchRunner(MatchScheduler rootScheduler) {
+    this(rootScheduler, 1);
+  }
+
+  public GlobalMatchRunner(MatchScheduler rootScheduler, int firstMatchId) {
     this.rootScheduler = rootScheduler;
-    this.matchExecutor =
-        new ThreadPoolExecutor(MAX_CONCURRENT_MATCHES, MAX_CONCURRENT_MATCHES,
-            WORK_CHECK_INTERVAL * 3 / 2, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+    this.nextMatchId = firstMatchId;
+    this.concurrency = new MatchConcurrencyController(
+        Runtime.getRuntime().availableProcessors(), MAX_CONCURRENT_MATCHES);
+    // Matches are only submitted below the concurrency limit, so every one gets its own thread.
+    this.matchExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+        IDLE_THREAD_TIMEOUT, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), concurrency);
+    rootScheduler.setWorkListener(new Runnable() {
+      @Override
+      public void run() {
+        signalWork();
+      }
+    });
+    registerMetrics(MetricRegistry.getDefault());
+  }
+
+  private void registerMetrics(MetricRegistry metrics) {
+    metrics.gauge("match_runner.active_matches", new Supplier<Integer>() {
+      @Override
+      public Integer get() {
+        return activeMatches.get();
+      }
+    });
+    metrics.gauge("match_runner.concurrency_limit", new Supplier<Integer>() {
+      @Override
+      public Integer get() {
+        return concurrency.getLimit();
+      }
+    });
+    metrics.gauge("match_runner.threads", new Supplier<Integer>() {
+      @Override
+      public Integer get() {
+        return matchExecutor.getPoolSize();
+      }
+    });
+    // Matches are handed directly to a thread, so the backlog is the matches the scheduler holds
+    // back while the runner is at its concurrency limit.
+    metrics.gauge("match_runner.queue_depth", new Supplier<Integer>() {
+      @Override
+      public Integer get() {
+        return rootScheduler.getPendingMatchCount();
+      }
+    });
+  }
+
+  private void signalWork() {
+    workLock.lock();
+    try {
+      workPending = true;
+      workSignal.signal();
+    } finally {
+      workLock.unlock();
+    }
+  }
+
+  private void startMatches() {
+    while (activeMatches.get() < concurrency.getLimit()) {
+      Optional<ListenableFutureTask<?>> nextMatch = rootScheduler.getNextMatch(nextMatchId);
+      if (!nextMatch.isPresent()) {
+        return;
+      }
+      ++nextMatchId;
+      activeMatches.incrementAndGet();
+      nextMatch.get().addListener(new Runnable() {
+        @Override
+        public void run() {
+          activeMatches.decrementAndGet();
+          signalWork();
+        }
+      }, MoreExecutors.sameThreadExecutor());
+      matchExecutor.execute(nextMatch.get());
+    }
+  }
+
+  /**
+   * Runs matches resumed from checkpoints. They count towards the active matches, but are started
+   * regardless of the concurrency limit.
+   */
+  public void startResumedMatches(Iterable<? extends Runnable> matches) {
+    for (Runnable match : matches) {
+      ListenableFutureTask<?> task = ListenableFutureTask.create(match, null);
+      activeMatches.incrementAndGet();
+      task.addListener(new Runnable() {
+        @Override
+        public void run() {
+          activeMatches.decrementAndGet();
+          signalWork();
+        }
+      }, MoreExecutors.sameThreadExecutor());
+      matchExecutor.execute(task);
+    }
   }
 
   @Override
   public void run() {
+    long nextSample = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SAMPLE_INTERVAL);
     while (true) {
-      if (matchExecutor.getQueue().isEmpty()) {
-        Optional<ListenableFutureTask<MatchSimulator>> nextMatch = rootScheduler.getNextMatch(nextMatchId);
-        if (nextMatch.isPresent()) {
-          ++nextMatchId;
-          matchExecutor.submit(nextMatch.get());
-          continue;
-        }
-      }
+      startMatches();
 
+      workLock.lock();
       try {
-        Thread.sleep(WORK_CHECK_INTERVAL);
+        while (!workPending) {
+          long untilSample = nextSample - System.nanoTime();
+          if (untilSample <= 0) {
+            break;
+          }
+          workSignal.awaitNanos(untilSample);
+        }
+        workPending = false;
       } catch (InterruptedException e) {
         break;
+      } finally {
+        workLock.unlock();
+      }
+
+      if (System.nanoTime() >= nextSample) {
+        concurrency.sample(activeMatches.get());
+        nextSample = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SAMPLE_INTERVAL);
       }
     }
+    matchExecutor.shutdown();
   }
 
-  public static void main(String[] args) {
-    ArenaBuilder arenaBuilder = new RandomArenaBuilder(20, 20);
-    MatchBuilder matchBuilder = new MatchBuilder(arenaBuilder);
-    ImmediateMatchScheduler lobby = new ImmediateMatchScheduler(matchBuilder);
+  public static void main(String[] args) throws IOException {
+    new MetricsService(MetricRegistry.getDefault(), METRICS_PORT).startAsync().awaitRunning();
+
+    // Match ids restart with every server, so every run logs to its own directory.
+    File runDirectory = new File(LOG_DIRECTORY, Long.toString(System.currentTimeMillis()));
+    MatchEventBus events = MatchEventBus.getDefault();
+    events.subscribe(new MatchEventLogger());
+    events.subscribe(new MatchEventCounter(MetricRegistry.getDefault()));
+    events.subscribe(new BinaryEventWriter(new File(runDirectory, "events.bin")));
+    events.startAsync().awaitRunning();
+
+    MatchConfig baseConfig = MatchConfig.getDefaultInstance();
+    PooledArenaBuilder arenaBuilder = new PooledArenaBuilder(new RandomArenaBuilder(20, 20),
+        MatchBuilder.createConfig(baseConfig, 0, PLAYERS_PER_MATCH), ARENA_POOL_SIZE);
+    arenaBuilder.startAsync().awaitRunning();
+
+    GameLogStore logStore = new DirectoryGameLogStore(runDirectory);
+    MatchRegistry registry = new MatchRegistry();
+    // Matches interrupted by the previous server continue from their last checkpoint.
+    CheckpointStore checkpointStore = new CheckpointStore(new File(CHECKPOINT_DIRECTORY));
+    List<MatchSimulator> resumedMatches = new ArrayList<>();
+    int firstMatchId = 1;
+    for (Checkpoint checkpoint : checkpointStore.readAll()) {
+      resumedMatches.add(MatchSimulator.resume(checkpoint, logStore, registry, checkpointStore));
+      firstMatchId = Math.max(firstMatchId, checkpoint.getMatchId() + 1);
+    }
+    MatchBuilder matchBuilder =
+        new MatchBuilder(arenaBuilder, baseConfig, logStore, registry, checkpointStore);
+    MatchmakingLobby lobby = new MatchmakingLobby(matchBuilder, PLAYERS_PER_MATCH);
 
     MatchScheduler scheduler = lobby;
-    GlobalMatchRunner matchRunner = new GlobalMatchRunner(scheduler);
+    GlobalMatchRunner matchRunner = new GlobalMatchRunner(scheduler, firstMatchId);
+
+    ClientEventLoop eventLoop = new ClientEventLoop();
+    eventLoop.startAsync().awaitRunning();
 
     PlayerEntry playerEntry = lobby;
-    ClientConnectionListenerService service = new ClientConnectionListenerService(playerEntry);
+    ClientConnectionListenerService service =
+        new ClientConnectionListenerService(playerEntry, eventLoop);
     service.startAsync().awaitRunning();
 
+    SpectatorListenerService spectatorService = new SpectatorListenerService(registry, eventLoop);
+    spectatorService.startAsync().awaitRunning();
+
+    ReattachListenerService reattachService =
+        new ReattachListenerService(registry, eventLoop, playerEntry);
+    reattachService.startAsync().awaitRunning();
+
+    matchRunner.startResumedMatches(resumedMatches);
     matchRunner.run();
   }
 }
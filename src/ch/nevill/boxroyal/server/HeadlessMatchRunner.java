@@ -0,0 +1,103 @@
+package ch.nevill.boxroyal.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.nevill.boxroyal.arena.RandomArenaBuilder;
+import ch.nevill.boxroyal.client.Bot;
+import ch.nevill.boxroyal.client.RandomBot;
+import ch.nevill.boxroyal.proto.MatchConfig;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Runs matches between in-process {@link Bot}s without any network I/O, spread over a
+ * work-stealing pool.
+ */
+public class HeadlessMatchRunner {
+  private static final Log log = LogFactory.getLog(HeadlessMatchRunner.class);
+  private static final int DEFAULT_MATCH_COUNT = 1000;
+  private static final int DEFAULT_PLAYERS = 2;
+  private static final int DEFAULT_ARENA_SIZE = 20;
+
+  private final MatchBuilder matchBuilder;
+  private final ForkJoinPool pool;
+  private final AtomicInteger nextMatchId = new AtomicInteger(1);
+
+  public HeadlessMatchRunner(MatchBuilder matchBuilder) {
+    this(matchBuilder, new ForkJoinPool());
+  }
+
+  public HeadlessMatchRunner(MatchBuilder matchBuilder, ForkJoinPool pool) {
+    this.matchBuilder = matchBuilder;
+    this.pool = pool;
+  }
+
+  /**
+   * Schedules a match between the given bots, one per player. Bots must not be shared between
+   * matches running at the same time.
+   */
+  public ForkJoinTask<MatchSimulator> submit(final List<? extends Bot> bots) {
+    final int matchId = nextMatchId.getAndIncrement();
+    return pool.submit(new Callable<MatchSimulator>() {
+      @Override
+      public MatchSimulator call() {
+        ImmutableList.Builder<Client> clients = ImmutableList.builder();
+        for (int i = 0; i < bots.size(); i++) {
+          clients.add(new BotClient(bots.get(i), String.format("bot-%d-%d", matchId, i)));
+        }
+        MatchSimulator match = matchBuilder.build(matchId, clients.build());
+        match.run();
+        return match;
+      }
+    });
+  }
+
+  public void shutdown() {
+    pool.shutdown();
+  }
+
+  /**
+   * Arguments: [match count] [players per match] [soldiers per player] [arena size]
+   */
+  public static void main(String[] args) {
+    int matchCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MATCH_COUNT;
+    int playerCount = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_PLAYERS;
+    MatchConfig.Builder config = MatchConfig.newBuilder();
+    if (args.length > 2) {
+      config.setSoldiersPerPlayer(Integer.parseInt(args[2]));
+    }
+    int arenaSize = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_ARENA_SIZE;
+
+    // Bots keep their own copy of the state, so they only need the initial arena once.
+    config.setDeltaViews(true);
+    MatchBuilder matchBuilder =
+        new MatchBuilder(new RandomArenaBuilder(arenaSize, arenaSize), config.build());
+    HeadlessMatchRunner runner = new HeadlessMatchRunner(matchBuilder);
+
+    long start = System.nanoTime();
+    ImmutableList.Builder<ForkJoinTask<MatchSimulator>> matches = ImmutableList.builder();
+    for (int i = 0; i < matchCount; i++) {
+      List<RandomBot> bots = new ArrayList<>(playerCount);
+      for (int j = 0; j < playerCount; j++) {
+        bots.add(new RandomBot());
+      }
+      matches.add(runner.submit(bots));
+    }
+    for (ForkJoinTask<MatchSimulator> match : matches.build()) {
+      match.join();
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    runner.shutdown();
+
+    log.info(String.format("Ran %d matches in %.2fs (%.1f matches/s)",
+        matchCount, seconds, matchCount / seconds));
+  }
+}
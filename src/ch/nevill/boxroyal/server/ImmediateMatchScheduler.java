@@ -6,27 +6,45 @@ import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 
+import ch.nevill.boxroyal.metrics.MetricRegistry;
+
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFutureTask;
 
 public class ImmediateMatchScheduler implements MatchScheduler, PlayerEntry {
-  private static final int PLAYERS_PER_MATCH = 2;
+  private static final int DEFAULT_PLAYERS_PER_MATCH = 2;
 
   private final Queue<Client> readyClients = new ConcurrentLinkedQueue<>();
-  private List<Client> nextClients = new ArrayList<>(PLAYERS_PER_MATCH);
-  private final MatchBuilder matchBuilder;
+  private final int playersPerMatch;
+  private List<Client> nextClients;
+  private final MatchFactory matchFactory;
+  private volatile Runnable workListener = null;
 
-  public ImmediateMatchScheduler(MatchBuilder matchBuilder) {
-    this.matchBuilder = matchBuilder;
+  public ImmediateMatchScheduler(MatchFactory matchFactory) {
+    this(matchFactory, DEFAULT_PLAYERS_PER_MATCH);
+  }
+
+  public ImmediateMatchScheduler(MatchFactory matchFactory, int playersPerMatch) {
+    Preconditions.checkArgument(playersPerMatch > 0, "Invalid player count %s", playersPerMatch);
+    this.matchFactory = matchFactory;
+    this.playersPerMatch = playersPerMatch;
+    this.nextClients = new ArrayList<>(playersPerMatch);
+    MetricRegistry.getDefault().gauge("immediate_scheduler.waiting", new Supplier<Integer>() {
+      @Override
+      public Integer get() {
+        return readyClients.size();
+      }
+    });
   }
 
   @Override
-  public Optional<ListenableFutureTask<MatchSimulator>> getNextMatch(int matchId) {
-    while (nextClients.size() < PLAYERS_PER_MATCH) {
+  public Optional<ListenableFutureTask<?>> getNextMatch(int matchId) {
+    while (nextClients.size() < playersPerMatch) {
       Client client = readyClients.poll();
       if (client == null) {
         return Optional.absent();
@@ -42,15 +60,15 @@ public class ImmediateMatchScheduler implements MatchScheduler, PlayerEntry {
       }
     }
 
-    Preconditions.checkState(nextClients.size() == PLAYERS_PER_MATCH);
+    Preconditions.checkState(nextClients.size() == playersPerMatch);
     final ImmutableList<Client> players = ImmutableList.copyOf(nextClients);
     nextClients.clear();
-    final MatchSimulator match = matchBuilder.build(matchId, players);
+    Runnable match = matchFactory.createMatch(matchId, players);
 
-    ListenableFutureTask<MatchSimulator> matchTask = ListenableFutureTask.create(match, match);
-    Futures.addCallback(matchTask, new FutureCallback<MatchSimulator>() {
+    ListenableFutureTask<Void> matchTask = ListenableFutureTask.create(match, null);
+    Futures.addCallback(matchTask, new FutureCallback<Void>() {
       @Override
-      public void onSuccess(MatchSimulator match) {
+      public void onSuccess(Void result) {
         addPlayers(players);
       }
       @Override
@@ -59,7 +77,17 @@ public class ImmediateMatchScheduler implements MatchScheduler, PlayerEntry {
       }
     });
 
-    return Optional.of(matchTask);
+    return Optional.<ListenableFutureTask<?>>of(matchTask);
+  }
+
+  @Override
+  public int getPendingMatchCount() {
+    return readyClients.size() / playersPerMatch;
+  }
+
+  @Override
+  public void setWorkListener(Runnable listener) {
+    this.workListener = listener;
   }
 
   protected void addPlayer(Client player) {
@@ -73,5 +101,9 @@ public class ImmediateMatchScheduler implements MatchScheduler, PlayerEntry {
     for (Client p : players) {
       addPlayer(p);
     }
+    Runnable listener = workListener;
+    if (listener != null) {
+      listener.run();
+    }
   }
 }
@@ -0,0 +1,377 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.nevill.boxroyal.client.Bot;
+import ch.nevill.boxroyal.client.MatchStateTracker;
+import ch.nevill.boxroyal.client.RandomBot;
+import ch.nevill.boxroyal.metrics.Counter;
+import ch.nevill.boxroyal.metrics.Histogram;
+import ch.nevill.boxroyal.proto.Turn;
+import ch.nevill.boxroyal.proto.View;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * Plays against a running server with many simulated clients over loopback connections, using
+ * the same protocol as real clients. Connections are added in equal steps of fixed length, and
+ * every step reports connection setup, round and match throughput and round latency. Ramping
+ * stops once the rounds played per connection drop clearly below the best step, which is where
+ * the server saturates.
+ *
+ * <p>Bots are seeded from a fixed seed and steps have a fixed length, so runs against different
+ * releases are comparable.
+ */
+public class LoadGenerator {
+  private static final Log log = LogFactory.getLog(LoadGenerator.class);
+  private static final String DEFAULT_HOST = "localhost";
+  private static final int SERVER_PORT = 45678;
+  private static final int DEFAULT_STEP_CONNECTIONS = 100;
+  private static final int DEFAULT_MAX_CONNECTIONS = 5000;
+  private static final int DEFAULT_STEP_SECONDS = 10;
+  private static final long DEFAULT_SEED = 1;
+  // Steps whose rounds per connection fall below this fraction of the best step are saturated.
+  private static final double SATURATION_FRACTION = 0.8;
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+  private static final double NANOS_PER_MILLI = 1e6;
+
+  private final InetSocketAddress address;
+  private final long seed;
+  private final List<Worker> workers = new ArrayList<>();
+  private int connectionCount = 0;
+
+  // Replaced at the start of every step
+  private volatile Step step = new Step();
+
+  /**
+   * Measurements of one step.
+   */
+  private static final class Step {
+    final long startNanos = System.nanoTime();
+    final Counter connects = new Counter();
+    final Counter rounds = new Counter();
+    final Counter matches = new Counter();
+    final Counter disconnects = new Counter();
+    final Histogram connectNanos = new Histogram();
+    final Histogram roundNanos = new Histogram();
+    // Start of the first connect of the step and completion of the last one, 0 if there were
+    // none. Connects are started in a burst, so the rate is measured over this span.
+    volatile long firstConnectStartNanos = 0;
+    final AtomicLong lastConnectNanos = new AtomicLong();
+
+    void recordConnect(long startNanos) {
+      long now = System.nanoTime();
+      connects.increment();
+      connectNanos.record(now - startNanos);
+      for (long last = lastConnectNanos.get(); last < now; last = lastConnectNanos.get()) {
+        if (lastConnectNanos.compareAndSet(last, now)) {
+          break;
+        }
+      }
+    }
+
+    /**
+     * Returns the connects completed per second from the first connect start to the last
+     * completion.
+     */
+    double getConnectRate() {
+      long span = lastConnectNanos.get() - firstConnectStartNanos;
+      if (firstConnectStartNanos == 0 || span <= 0) {
+        return 0;
+      }
+      return connects.get() / (span / 1e9);
+    }
+  }
+
+  public LoadGenerator(InetSocketAddress address, long seed, int threads) throws IOException {
+    this.address = address;
+    this.seed = seed;
+    for (int i = 0; i < threads; i++) {
+      Worker worker = new Worker();
+      workers.add(worker);
+      Thread thread = new Thread(worker, "load-" + i);
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  /**
+   * Opens connections until there are the given number in total.
+   */
+  public void connect(int totalConnections) throws IOException {
+    Step current = step;
+    if (connectionCount < totalConnections && current.firstConnectStartNanos == 0) {
+      current.firstConnectStartNanos = System.nanoTime();
+    }
+    for (; connectionCount < totalConnections; connectionCount++) {
+      SocketChannel channel = SocketChannel.open();
+      channel.configureBlocking(false);
+      channel.socket().setTcpNoDelay(true);
+      Connection connection = new Connection(channel,
+          new RandomBot(new Random(seed + connectionCount)), System.nanoTime());
+      // Connecting over loopback may complete right away, no OP_CONNECT follows then.
+      if (channel.connect(address)) {
+        connection.onConnected();
+      }
+      workers.get(connectionCount % workers.size()).add(connection);
+    }
+  }
+
+  /**
+   * Ends the current step and returns its measurements, starting the next one.
+   */
+  private Step nextStep() {
+    Step finished = step;
+    step = new Step();
+    return finished;
+  }
+
+  /**
+   * Runs the ramp and returns the number of connections at which the server saturated, or the
+   * maximum number of connections if it never did.
+   */
+  public int run(int stepConnections, int maxConnections, long stepDuration, TimeUnit unit)
+      throws IOException, InterruptedException {
+    double bestRoundsPerConnection = 0;
+    for (int connections = stepConnections; connections <= maxConnections;
+        connections += stepConnections) {
+      nextStep();
+      connect(connections);
+      unit.sleep(stepDuration);
+      Step finished = nextStep();
+
+      double seconds = (System.nanoTime() - finished.startNanos) / 1e9;
+      Map<String, Number> connectLatency = new TreeMap<>();
+      finished.connectNanos.report("connect", connectLatency);
+      Map<String, Number> roundLatency = new TreeMap<>();
+      finished.roundNanos.report("round", roundLatency);
+      double roundsPerSecond = finished.rounds.get() / seconds;
+      log.info(String.format("connections=%d connects/s=%.1f connect_p99_ms=%.2f rounds/s=%.1f "
+          + "matches/s=%.2f round_p50_ms=%.2f round_p99_ms=%.2f round_p999_ms=%.2f "
+          + "disconnects=%d",
+          connections, finished.getConnectRate(),
+          millis(connectLatency.get("connect.p99")), roundsPerSecond,
+          finished.matches.get() / seconds, millis(roundLatency.get("round.p50")),
+          millis(roundLatency.get("round.p99")), millis(roundLatency.get("round.p999")),
+          finished.disconnects.get()));
+
+      double roundsPerConnection = roundsPerSecond / connections;
+      if (roundsPerConnection < SATURATION_FRACTION * bestRoundsPerConnection) {
+        log.info(String.format("Server saturated at %d connections (%.1f rounds/s)",
+            connections, roundsPerSecond));
+        return connections;
+      }
+      bestRoundsPerConnection = Math.max(bestRoundsPerConnection, roundsPerConnection);
+    }
+    log.info(String.format("Server did not saturate with %d connections", maxConnections));
+    return maxConnections;
+  }
+
+  private static double millis(Number nanos) {
+    return nanos.longValue() / NANOS_PER_MILLI;
+  }
+
+  /**
+   * Simulated client playing every match it is put into until the connection closes.
+   */
+  private final class Connection {
+    private final SocketChannel channel;
+    private final Bot bot;
+    private final MatchStateTracker tracker = new MatchStateTracker();
+    private final long connectStartNanos;
+    private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private SelectionKey key = null;
+    private volatile boolean connected = false;
+    // Time the last turn was sent, or 0 before the first turn of a match.
+    private long turnSentNanos = 0;
+
+    Connection(SocketChannel channel, Bot bot, long connectStartNanos) {
+      this.channel = channel;
+      this.bot = bot;
+      this.connectStartNanos = connectStartNanos;
+    }
+
+    void onConnectable() throws IOException {
+      if (channel.finishConnect()) {
+        onConnected();
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    void onConnected() {
+      connected = true;
+      step.recordConnect(connectStartNanos);
+    }
+
+    void onReadable() throws IOException {
+      if (channel.read(readBuffer) < 0) {
+        throw new IOException("Connection closed by server");
+      }
+
+      int requiredCapacity = 0;
+      readBuffer.flip();
+      while (readBuffer.hasRemaining()) {
+        int frameStart = readBuffer.position();
+        int length = NioClient.readVarint32(readBuffer);
+        if (length < 0) {
+          readBuffer.position(frameStart);
+          break;
+        }
+        if (readBuffer.remaining() < length) {
+          requiredCapacity = readBuffer.position() - frameStart + length;
+          readBuffer.position(frameStart);
+          break;
+        }
+        int offset = readBuffer.arrayOffset() + readBuffer.position();
+        readBuffer.position(readBuffer.position() + length);
+        onView(View.parseFrom(CodedInputStream.newInstance(readBuffer.array(), offset, length)));
+      }
+      readBuffer.compact();
+
+      if (requiredCapacity > readBuffer.capacity()) {
+        ByteBuffer larger = ByteBuffer.allocate(requiredCapacity);
+        readBuffer.flip();
+        larger.put(readBuffer);
+        readBuffer = larger;
+      }
+    }
+
+    private void onView(View view) throws IOException {
+      long now = System.nanoTime();
+      Step current = step;
+      if (view.hasPlayerId()) {
+        // First view of a new match.
+        current.matches.increment();
+        turnSentNanos = 0;
+      } else if (turnSentNanos != 0) {
+        current.rounds.increment();
+        current.roundNanos.record(now - turnSentNanos);
+      }
+      tracker.update(view);
+
+      // The server reads no turn after the last round, it would be taken for the next match.
+      if (tracker.getState().getRound() >= MatchSimulator.MAX_ROUNDS) {
+        turnSentNanos = 0;
+        return;
+      }
+      Turn turn = Turn.newBuilder()
+          .addAllOperation(bot.playTurn(tracker.getState(), tracker.getPlayerId()))
+          .build();
+      int size = turn.getSerializedSize();
+      byte[] frame = new byte[CodedOutputStream.computeRawVarint32Size(size) + size];
+      CodedOutputStream output = CodedOutputStream.newInstance(frame);
+      output.writeRawVarint32(size);
+      turn.writeTo(output);
+      writeQueue.add(ByteBuffer.wrap(frame));
+      turnSentNanos = now;
+      onWritable();
+    }
+
+    void onWritable() throws IOException {
+      while (!writeQueue.isEmpty()) {
+        channel.write(writeQueue.peek());
+        if (writeQueue.peek().hasRemaining()) {
+          break;
+        }
+        writeQueue.poll();
+      }
+      key.interestOps(writeQueue.isEmpty()
+          ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+
+    void close(IOException cause) {
+      step.disconnects.increment();
+      log.debug(String.format("Connection closed: %s", cause.getMessage()));
+      key.cancel();
+      try {
+        channel.close();
+      } catch (IOException e) {
+        // Already closing, nothing left to do.
+      }
+    }
+  }
+
+  /**
+   * Selector thread serving a share of the connections.
+   */
+  private final class Worker implements Runnable {
+    private final Selector selector;
+    private final Queue<Connection> pendingConnections = new ConcurrentLinkedQueue<>();
+
+    Worker() throws IOException {
+      this.selector = Selector.open();
+    }
+
+    void add(Connection connection) {
+      pendingConnections.add(connection);
+      selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          selector.select();
+          for (Connection connection; (connection = pendingConnections.poll()) != null; ) {
+            connection.key = connection.channel.register(selector,
+                connection.connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+          }
+          for (SelectionKey key : selector.selectedKeys()) {
+            Connection connection = (Connection) key.attachment();
+            try {
+              if (key.isConnectable()) {
+                connection.onConnectable();
+              }
+              if (key.isValid() && key.isReadable()) {
+                connection.onReadable();
+              }
+              if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+              }
+            } catch (IOException e) {
+              connection.close(e);
+            }
+          }
+          selector.selectedKeys().clear();
+        }
+      } catch (IOException e) {
+        log.error("Load generator thread failed", e);
+      }
+    }
+  }
+
+  /**
+   * Arguments: [host] [connections per step] [max connections] [seconds per step] [seed]
+   */
+  public static void main(String[] args) throws IOException, InterruptedException {
+    String host = args.length > 0 ? args[0] : DEFAULT_HOST;
+    int stepConnections = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_STEP_CONNECTIONS;
+    int maxConnections = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_CONNECTIONS;
+    int stepSeconds = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_STEP_SECONDS;
+    long seed = args.length > 4 ? Long.parseLong(args[4]) : DEFAULT_SEED;
+
+    LoadGenerator generator = new LoadGenerator(new InetSocketAddress(host, SERVER_PORT), seed,
+        Runtime.getRuntime().availableProcessors());
+    generator.run(stepConnections, maxConnections, stepSeconds, TimeUnit.SECONDS);
+  }
+}
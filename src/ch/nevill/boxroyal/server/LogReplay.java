@@ -0,0 +1,65 @@
+package ch.nevill.boxroyal.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.nevill.boxroyal.arena.BoxGrid;
+import ch.nevill.boxroyal.proto.MatchStateOrBuilder;
+import ch.nevill.boxroyal.proto.Operation;
+import ch.nevill.boxroyal.proto.ReceivedOperation;
+import ch.nevill.boxroyal.proto.Round;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Simulates logged rounds again, starting from a logged state. The operations of every round are
+ * applied the same way as in the original match, so the results can be compared with the log.
+ */
+final class LogReplay {
+  private final SimulationState state;
+  private final StepSimulator step;
+  private final List<Operation> turn = new ArrayList<>();
+
+  LogReplay(MatchStateOrBuilder initialState, BoxGrid grid) {
+    this.state = SimulationState.fromState(initialState);
+    this.step = new StepSimulator(state, grid);
+  }
+
+  SimulationState getState() {
+    return state;
+  }
+
+  /**
+   * Applies the operations of the next round and returns the round with the recomputed errors.
+   */
+  Round replayRound(Round logged) throws InvalidProtocolBufferException {
+    if (logged.getRoundId() != state.getRound()) {
+      throw new InvalidProtocolBufferException(String.format("Expected round %d, got %d",
+          state.getRound(), logged.getRoundId()));
+    }
+    Round.Builder round = Round.newBuilder().setRoundId(state.getRound());
+    step.runPreStep(round);
+
+    // Operations of a turn are logged together. A missing turn, or the operations dropped from a
+    // turn, are a single entry without an operation.
+    List<ReceivedOperation> received = logged.getOperationList();
+    for (int i = 0; i < received.size(); ) {
+      ReceivedOperation first = received.get(i);
+      if (!first.hasOperation()) {
+        round.addOperation(first);
+        ++i;
+        continue;
+      }
+      turn.clear();
+      for (; i < received.size() && received.get(i).hasOperation()
+          && received.get(i).getPlayerId() == first.getPlayerId(); i++) {
+        turn.add(received.get(i).getOperation());
+      }
+      step.runPlayerOperations(first.getPlayerId(), turn);
+    }
+
+    step.runPostStep();
+    state.setRound(state.getRound() + 1);
+    return round.build();
+  }
+}
@@ -1,28 +1,77 @@
 package ch.nevill.boxroyal.server;
 
+import ch.nevill.boxroyal.arena.Arena;
 import ch.nevill.boxroyal.arena.ArenaBuilder;
+import ch.nevill.boxroyal.log.CheckpointStore;
+import ch.nevill.boxroyal.log.DiscardingGameLogStore;
+import ch.nevill.boxroyal.log.GameLogStore;
 import ch.nevill.boxroyal.proto.MatchConfig;
-import ch.nevill.boxroyal.proto.MatchState;
 import ch.nevill.boxroyal.proto.Player;
 
 import com.google.common.collect.ImmutableList;
 
-public class MatchBuilder {
+public class MatchBuilder implements MatchFactory {
   private final ArenaBuilder arenaBuilder;
+  private final MatchConfig baseConfig;
+  private final GameLogStore logStore;
+  private final MatchRegistry registry;
+  private final CheckpointStore checkpointStore;
 
   public MatchBuilder(ArenaBuilder arenaBuilder) {
+    this(arenaBuilder, MatchConfig.getDefaultInstance());
+  }
+
+  public MatchBuilder(ArenaBuilder arenaBuilder, MatchConfig baseConfig) {
+    this(arenaBuilder, baseConfig, new DiscardingGameLogStore());
+  }
+
+  public MatchBuilder(ArenaBuilder arenaBuilder, MatchConfig baseConfig, GameLogStore logStore) {
+    this(arenaBuilder, baseConfig, logStore, new MatchRegistry());
+  }
+
+  public MatchBuilder(ArenaBuilder arenaBuilder, MatchConfig baseConfig, GameLogStore logStore,
+      MatchRegistry registry) {
+    this(arenaBuilder, baseConfig, logStore, registry, null);
+  }
+
+  /**
+   * @param checkpointStore store to checkpoint matches to, or null
+   */
+  public MatchBuilder(ArenaBuilder arenaBuilder, MatchConfig baseConfig, GameLogStore logStore,
+      MatchRegistry registry, CheckpointStore checkpointStore) {
     this.arenaBuilder = arenaBuilder;
+    this.baseConfig = baseConfig;
+    this.logStore = logStore;
+    this.registry = registry;
+    this.checkpointStore = checkpointStore;
+  }
+
+  /**
+   * Returns the config of a match between the given number of players, numbered from 1.
+   */
+  public static MatchConfig createConfig(MatchConfig baseConfig, int matchId, int playerCount) {
+    MatchConfig.Builder configBuilder = baseConfig.toBuilder().setMatchId(matchId);
+    for (int i = 1; i <= playerCount; i++) {
+      configBuilder.addPlayer(Player.newBuilder().setId(i));
+    }
+    return configBuilder.build();
   }
 
   protected MatchSimulator build(final int matchId, final ImmutableList<Client> players) {
-    MatchConfig matchConfig = MatchConfig.newBuilder()
-        .setMatchId(matchId)
-        .addPlayer(Player.newBuilder().setId(1))
-        .addPlayer(Player.newBuilder().setId(2))
-        .build();
-
-    MatchState state = arenaBuilder.build(matchConfig);
-    state = state.toBuilder().setConfig(matchConfig).setRound(0).build();
-    return new MatchSimulator(players, state);
+    return build(createConfig(baseConfig, matchId, players.size()), players);
+  }
+
+  /**
+   * Builds a match with a complete config, which already names the match and its players.
+   */
+  protected MatchSimulator build(MatchConfig matchConfig, ImmutableList<Client> players) {
+    Arena arena = arenaBuilder.build(matchConfig);
+    arena = arena.withState(arena.getState().toBuilder().setConfig(matchConfig).setRound(0).build());
+    return new MatchSimulator(players, arena, logStore, registry, checkpointStore);
+  }
+
+  @Override
+  public Runnable createMatch(int matchId, ImmutableList<Client> players) {
+    return build(matchId, players);
   }
 }
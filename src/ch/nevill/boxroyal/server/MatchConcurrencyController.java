@@ -0,0 +1,101 @@
+package ch.nevill.boxroyal.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Sizes the number of concurrently running matches from how much of their time match threads
+ * spend blocked, following threads = cores / (1 - blocked fraction). The limit does not grow
+ * while the machine is already fully loaded.
+ */
+class MatchConcurrencyController implements ThreadFactory {
+  private static final Log log = LogFactory.getLog(MatchConcurrencyController.class);
+  private static final double SMOOTHING = 0.3;
+  private static final double MIN_COMPUTE_FRACTION = 1e-3;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+  private final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+  private final Map<Thread, Long> threadCpuTimes = new ConcurrentHashMap<>();
+  private final AtomicInteger threadCount = new AtomicInteger();
+
+  private double blockedFraction = 0;
+  private long lastSampleTime = System.nanoTime();
+  private volatile int limit;
+
+  MatchConcurrencyController(int minLimit, int maxLimit) {
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.limit = minLimit;
+  }
+
+  int getLimit() {
+    return limit;
+  }
+
+  @Override
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, "match-" + threadCount.incrementAndGet());
+    threadCpuTimes.put(thread, 0L);
+    return thread;
+  }
+
+  /**
+   * Updates the limit from the CPU time used by match threads since the last sample. Must only
+   * be called from a single thread.
+   */
+  void sample(int activeMatches) {
+    long now = System.nanoTime();
+    long elapsed = now - lastSampleTime;
+    lastSampleTime = now;
+    if (!threadBean.isThreadCpuTimeSupported()) {
+      return;
+    }
+
+    long cpuTime = 0;
+    for (Iterator<Map.Entry<Thread, Long>> i = threadCpuTimes.entrySet().iterator(); i.hasNext(); ) {
+      Map.Entry<Thread, Long> entry = i.next();
+      long total = threadBean.getThreadCpuTime(entry.getKey().getId());
+      if (total < 0) {
+        i.remove();
+        continue;
+      }
+      cpuTime += total - entry.getValue();
+      entry.setValue(total);
+    }
+
+    long busyTime = activeMatches * elapsed;
+    if (busyTime <= 0) {
+      return;
+    }
+    double blocked = Math.max(0, Math.min(1, 1 - (double) cpuTime / busyTime));
+    blockedFraction = SMOOTHING * blocked + (1 - SMOOTHING) * blockedFraction;
+
+    int target = (int) Math.min(maxLimit,
+        minLimit / Math.max(1 - blockedFraction, MIN_COMPUTE_FRACTION));
+    if (target > limit && isCpuSaturated()) {
+      target = limit;
+    }
+    target = Math.max(minLimit, target);
+    if (target != limit) {
+      log.debug(String.format("Match concurrency %d -> %d (%.0f%% blocked)",
+          limit, target, blockedFraction * 100));
+      limit = target;
+    }
+  }
+
+  private boolean isCpuSaturated() {
+    double load = osBean.getSystemLoadAverage();
+    return load >= 0 && load >= osBean.getAvailableProcessors();
+  }
+}
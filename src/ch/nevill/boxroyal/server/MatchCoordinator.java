@@ -0,0 +1,480 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.nevill.boxroyal.log.DirectoryGameLogStore;
+import ch.nevill.boxroyal.metrics.MetricRegistry;
+import ch.nevill.boxroyal.metrics.MetricsService;
+import ch.nevill.boxroyal.proto.CoordinatorMessage;
+import ch.nevill.boxroyal.proto.GameLogChunk;
+import ch.nevill.boxroyal.proto.MatchConfig;
+import ch.nevill.boxroyal.proto.MatchResult;
+import ch.nevill.boxroyal.proto.Operation;
+import ch.nevill.boxroyal.proto.PlayerDisconnect;
+import ch.nevill.boxroyal.proto.PlayerTurn;
+import ch.nevill.boxroyal.proto.PlayerView;
+import ch.nevill.boxroyal.proto.Size;
+import ch.nevill.boxroyal.proto.StartMatch;
+import ch.nevill.boxroyal.proto.Turn;
+import ch.nevill.boxroyal.proto.WorkerMessage;
+import ch.nevill.boxroyal.proto.WorkerStatus;
+
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Front end of a server running its matches on separate {@link MatchWorker} processes. Clients
+ * connect to the coordinator and are matched up as usual, then every match is handed off to the
+ * connected worker with the lowest reported load. The coordinator forwards the turns of the
+ * players to the worker and the views of the worker to the players, and appends the game logs
+ * streamed back by the workers to its own log directory.
+ *
+ * <p>A match fails if its worker is lost, and its players are matched up again. Spectators are
+ * not supported in this mode.
+ */
+public class MatchCoordinator extends AbstractExecutionThreadService implements MatchFactory {
+  private static final Log log = LogFactory.getLog(MatchCoordinator.class);
+  static final int WORKER_PORT = 45681;
+  static final int DEFAULT_WORKER_CAPACITY = 512;
+  private static final long WORKER_WAIT_SECONDS = 10;
+  private static final String LOG_DIRECTORY = "logs";
+  private static final int PLAYERS_PER_MATCH = 2;
+  private static final int DEFAULT_ARENA_SIZE = 20;
+  private static final int METRICS_PORT = 45680;
+
+  private final DirectoryGameLogStore logStore;
+  private final MatchConfig baseConfig;
+  private final Size arenaSize;
+  private final List<WorkerConnection> workers = new CopyOnWriteArrayList<>();
+  private final Map<Integer, RemoteMatch> matches = new ConcurrentHashMap<>();
+  private final Lock workerLock = new ReentrantLock();
+  private final Condition workerAvailable = workerLock.newCondition();
+  private ServerSocket serverSocket = null;
+
+  public MatchCoordinator(DirectoryGameLogStore logStore) {
+    this(logStore, MatchConfig.getDefaultInstance(), DEFAULT_ARENA_SIZE, DEFAULT_ARENA_SIZE);
+  }
+
+  /**
+   * @param baseConfig config of every match, to which the match id and players are added
+   * @param arenaWidth width of the arenas workers generate
+   * @param arenaHeight height of the arenas workers generate
+   */
+  public MatchCoordinator(DirectoryGameLogStore logStore, MatchConfig baseConfig, int arenaWidth,
+      int arenaHeight) {
+    this.logStore = logStore;
+    this.baseConfig = baseConfig;
+    this.arenaSize = Size.newBuilder().setWidth(arenaWidth).setHeight(arenaHeight).build();
+    MetricRegistry metrics = MetricRegistry.getDefault();
+    metrics.gauge("coordinator.workers", new Supplier<Integer>() {
+      @Override
+      public Integer get() {
+        return workers.size();
+      }
+    });
+    metrics.gauge("coordinator.remote_matches", new Supplier<Integer>() {
+      @Override
+      public Integer get() {
+        return matches.size();
+      }
+    });
+  }
+
+  @Override
+  public Runnable createMatch(int matchId, ImmutableList<Client> players) {
+    return new RemoteMatch(matchId, players);
+  }
+
+  @Override
+  protected void startUp() throws Exception {
+    serverSocket = new ServerSocket();
+    serverSocket.bind(new InetSocketAddress(WORKER_PORT));
+    log.info(String.format("Listening for workers on %s:%d",
+        serverSocket.getInetAddress(), serverSocket.getLocalPort()));
+  }
+
+  @Override
+  protected void run() throws Exception {
+    while (true) {
+      Socket socket = serverSocket.accept();
+      final WorkerConnection worker = new WorkerConnection(new ClusterLink(socket));
+      Thread reader = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          worker.readMessages();
+        }
+      }, "worker-" + worker.link.getName());
+      reader.setDaemon(true);
+      reader.start();
+    }
+  }
+
+  @Override
+  protected void triggerShutdown() {
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      // Already closing, nothing left to do.
+    }
+  }
+
+  @Override
+  protected void shutDown() {
+    for (WorkerConnection worker : workers) {
+      worker.link.close();
+    }
+  }
+
+  private void signalWorkers() {
+    workerLock.lock();
+    try {
+      workerAvailable.signalAll();
+    } finally {
+      workerLock.unlock();
+    }
+  }
+
+  /**
+   * Reserves a match on the worker with the lowest load, waiting for one with free capacity.
+   */
+  private WorkerConnection assignWorker(int matchId) {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WORKER_WAIT_SECONDS);
+    workerLock.lock();
+    try {
+      while (true) {
+        WorkerConnection best = null;
+        for (WorkerConnection worker : workers) {
+          if (worker.hasCapacity() && (best == null || worker.getLoad() < best.getLoad())) {
+            best = worker;
+          }
+        }
+        if (best != null) {
+          best.assign();
+          return best;
+        }
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          throw new IllegalStateException(
+              String.format("Match %d: No worker with free capacity", matchId));
+        }
+        workerAvailable.awaitNanos(remaining);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(
+          String.format("Match %d: Interrupted waiting for a worker", matchId), e);
+    } finally {
+      workerLock.unlock();
+    }
+  }
+
+  /**
+   * Connection to a worker and its reported load.
+   */
+  private final class WorkerConnection {
+    final ClusterLink link;
+    // Guarded by this
+    private int capacity = 0;
+    private int reportedMatches = 0;
+    // Matches assigned in total, and those the worker confirmed in its last status. The others
+    // may still be on the way and are not included in the reported matches.
+    private int assignedMatches = 0;
+    private int confirmedMatches = 0;
+
+    WorkerConnection(ClusterLink link) {
+      this.link = link;
+    }
+
+    // Guarded by this
+    private int getExpectedMatches() {
+      return reportedMatches + assignedMatches - confirmedMatches;
+    }
+
+    synchronized boolean hasCapacity() {
+      return getExpectedMatches() < capacity;
+    }
+
+    synchronized double getLoad() {
+      return (double) getExpectedMatches() / capacity;
+    }
+
+    synchronized void assign() {
+      ++assignedMatches;
+    }
+
+    private synchronized void updateStatus(WorkerStatus status) {
+      capacity = status.getCapacity();
+      reportedMatches = status.getActiveMatches();
+      confirmedMatches = status.getStartedMatches();
+    }
+
+    void readMessages() {
+      log.info(String.format("Worker %s connected", link.getName()));
+      workers.add(this);
+      try {
+        WorkerMessage message;
+        while ((message = WorkerMessage.parseDelimitedFrom(link.getInput())) != null) {
+          if (message.hasStatus()) {
+            updateStatus(message.getStatus());
+            signalWorkers();
+          }
+          if (message.hasView()) {
+            RemoteMatch match = matches.get(message.getView().getMatchId());
+            if (match != null) {
+              match.transmit(message.getView());
+            }
+          }
+          if (message.hasLogChunk()) {
+            RemoteMatch match = matches.get(message.getLogChunk().getMatchId());
+            if (match != null) {
+              match.appendLog(message.getLogChunk());
+            }
+          }
+          if (message.hasResult()) {
+            RemoteMatch match = matches.get(message.getResult().getMatchId());
+            if (match != null) {
+              match.result.set(message.getResult());
+            }
+          }
+        }
+        log.warn(String.format("Worker %s closed the connection", link.getName()));
+      } catch (IOException e) {
+        log.warn(String.format("Lost connection to worker %s", link.getName()), e);
+      } finally {
+        workers.remove(this);
+        link.close();
+        IOException cause = new IOException(String.format("Lost worker %s", link.getName()));
+        for (RemoteMatch match : matches.values()) {
+          if (match.worker == this) {
+            match.result.setException(cause);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Plays a match on a worker, relaying between the worker and the players until it finished.
+   */
+  private final class RemoteMatch implements Runnable {
+    private final int matchId;
+    private final ImmutableList<Client> players;
+    final SettableFuture<MatchResult> result = SettableFuture.create();
+    volatile WorkerConnection worker = null;
+    // Guarded by this
+    private final ListenableFuture<?>[] pendingTurns;
+    private boolean finished = false;
+    private FileOutputStream logStream = null;
+    private boolean logFailed = false;
+
+    RemoteMatch(int matchId, ImmutableList<Client> players) {
+      this.matchId = matchId;
+      this.players = players;
+      this.pendingTurns = new ListenableFuture<?>[players.size()];
+    }
+
+    @Override
+    public void run() {
+      worker = assignWorker(matchId);
+      matches.put(matchId, this);
+      try {
+        if (!workers.contains(worker)) {
+          throw new IllegalStateException(String.format("Match %d: Lost worker %s", matchId,
+              worker.link.getName()));
+        }
+        StartMatch.Builder start = StartMatch.newBuilder()
+            .setMatchId(matchId)
+            .setConfig(MatchBuilder.createConfig(baseConfig, matchId, players.size()))
+            .setArenaSize(arenaSize);
+        for (Client player : players) {
+          start.addPlayerName(player.getName());
+        }
+        send(CoordinatorMessage.newBuilder().setStartMatch(start).build());
+        for (int i = 0; i < players.size(); i++) {
+          forwardTurns(i);
+        }
+
+        MatchResult matchResult;
+        try {
+          matchResult = Uninterruptibles.getUninterruptibly(result);
+        } catch (ExecutionException e) {
+          throw new IllegalStateException(String.format("Match %d: %s", matchId,
+              e.getCause().getMessage()), e.getCause());
+        }
+        if (!matchResult.getCompleted()) {
+          throw new IllegalStateException(String.format("Match %d failed on worker %s: %s",
+              matchId, worker.link.getName(), matchResult.getError()));
+        }
+      } finally {
+        finish();
+        matches.remove(matchId);
+        signalWorkers();
+      }
+    }
+
+    private void send(CoordinatorMessage message) {
+      try {
+        worker.link.send(message);
+      } catch (IOException e) {
+        // The match fails once the reader of the link notices.
+      }
+    }
+
+    /**
+     * Forwards the turns of a player to the worker as they arrive, until the match finished.
+     */
+    private void forwardTurns(final int player) {
+      final Client client = players.get(player);
+      ListenableFuture<List<Operation>> turn;
+      synchronized (this) {
+        if (finished) {
+          return;
+        }
+        turn = client.receiveOperations();
+        pendingTurns[player] = turn;
+      }
+      Futures.addCallback(turn, new FutureCallback<List<Operation>>() {
+        @Override
+        public void onSuccess(List<Operation> operations) {
+          send(CoordinatorMessage.newBuilder()
+              .setTurn(PlayerTurn.newBuilder()
+                  .setMatchId(matchId)
+                  .setPlayerIndex(player)
+                  .setTurn(Turn.newBuilder().addAllOperation(operations)))
+              .build());
+          forwardTurns(player);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          synchronized (RemoteMatch.this) {
+            if (finished) {
+              return;
+            }
+          }
+          if (client.isConnected()) {
+            // Malformed turn, the worker counts it as missing.
+            send(CoordinatorMessage.newBuilder()
+                .setTurn(PlayerTurn.newBuilder().setMatchId(matchId).setPlayerIndex(player))
+                .build());
+            forwardTurns(player);
+          } else {
+            send(CoordinatorMessage.newBuilder()
+                .setDisconnect(PlayerDisconnect.newBuilder()
+                    .setMatchId(matchId)
+                    .setPlayerIndex(player))
+                .build());
+          }
+        }
+      });
+    }
+
+    void transmit(PlayerView view) {
+      if (view.getPlayerIndex() < 0 || view.getPlayerIndex() >= players.size()) {
+        return;
+      }
+      Client player = players.get(view.getPlayerIndex());
+      try {
+        player.transmit(new ViewFrame(view.getView()));
+      } catch (IOException e) {
+        log.debug(String.format("Match %d: Error transmitting view to player %s",
+            matchId, player.getName()), e);
+      }
+    }
+
+    synchronized void appendLog(GameLogChunk chunk) {
+      if (logFailed) {
+        return;
+      }
+      try {
+        if (logStream == null) {
+          File file = logStore.getLogFile(matchId);
+          if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            throw new IOException("Unable to create log directory " + file.getParent());
+          }
+          logStream = new FileOutputStream(file);
+        }
+        logStream.write(chunk.getData().toByteArray());
+        if (chunk.getClosed()) {
+          logStream.getFD().sync();
+          closeLog();
+        }
+      } catch (IOException e) {
+        log.error(String.format("Match %d: Error writing game log, stopped logging match",
+            matchId), e);
+        logFailed = true;
+        closeLog();
+      }
+    }
+
+    private void closeLog() {
+      if (logStream == null) {
+        return;
+      }
+      try {
+        logStream.close();
+      } catch (IOException e) {
+        log.error(String.format("Match %d: Error closing game log", matchId), e);
+      }
+      logStream = null;
+    }
+
+    /**
+     * Stops forwarding turns, so that the players can be matched up again.
+     */
+    private synchronized void finish() {
+      finished = true;
+      for (ListenableFuture<?> turn : pendingTurns) {
+        if (turn != null) {
+          turn.cancel(false);
+        }
+      }
+      closeLog();
+    }
+  }
+
+  public static void main(String[] args) {
+    new MetricsService(MetricRegistry.getDefault(), METRICS_PORT).startAsync().awaitRunning();
+
+    // Match ids restart with every server, so every run logs to its own directory.
+    DirectoryGameLogStore logStore = new DirectoryGameLogStore(
+        new File(LOG_DIRECTORY, Long.toString(System.currentTimeMillis())));
+    MatchCoordinator coordinator = new MatchCoordinator(logStore);
+    coordinator.startAsync().awaitRunning();
+
+    MatchmakingLobby lobby = new MatchmakingLobby(coordinator, PLAYERS_PER_MATCH);
+    GlobalMatchRunner matchRunner = new GlobalMatchRunner(lobby);
+
+    ClientEventLoop eventLoop = new ClientEventLoop();
+    eventLoop.startAsync().awaitRunning();
+
+    ClientConnectionListenerService service =
+        new ClientConnectionListenerService(lobby, eventLoop);
+    service.startAsync().awaitRunning();
+
+    matchRunner.run();
+  }
+}
@@ -0,0 +1,11 @@
+package ch.nevill.boxroyal.server;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Creates the task playing a match between the given clients, run by the caller on a thread of
+ * its own.
+ */
+interface MatchFactory {
+  public Runnable createMatch(int matchId, ImmutableList<Client> players);
+}
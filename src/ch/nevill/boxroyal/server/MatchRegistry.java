@@ -0,0 +1,55 @@
+package ch.nevill.boxroyal.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Optional;
+
+/**
+ * Matches currently being played, by match id and by the reattach tokens of their players.
+ */
+public class MatchRegistry {
+  private final ConcurrentMap<Integer, MatchSimulator> matches = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, PlayerSlot> tokens = new ConcurrentHashMap<>();
+
+  private static final class PlayerSlot {
+    final MatchSimulator match;
+    final int playerIndex;
+
+    PlayerSlot(MatchSimulator match, int playerIndex) {
+      this.match = match;
+      this.playerIndex = playerIndex;
+    }
+  }
+
+  void register(int matchId, MatchSimulator match) {
+    matches.put(matchId, match);
+    for (int i = 0; i < match.getPlayerTokens().size(); i++) {
+      tokens.put(match.getPlayerTokens().get(i), new PlayerSlot(match, i));
+    }
+  }
+
+  void unregister(int matchId, MatchSimulator match) {
+    for (String token : match.getPlayerTokens()) {
+      tokens.remove(token);
+    }
+    matches.remove(matchId, match);
+  }
+
+  public Optional<MatchSimulator> get(int matchId) {
+    return Optional.fromNullable(matches.get(matchId));
+  }
+
+  /**
+   * Hands a client to the match of the player with the given reattach token, to play on in its
+   * place. Returns false if no running match has a player with this token.
+   */
+  boolean reattach(String token, Client client, PlayerEntry afterMatch) {
+    PlayerSlot slot = tokens.get(token);
+    if (slot == null) {
+      return false;
+    }
+    slot.match.reattach(slot.playerIndex, client, afterMatch);
+    return true;
+  }
+}
@@ -0,0 +1,95 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import ch.nevill.boxroyal.arena.BoxGrid;
+import ch.nevill.boxroyal.log.GameLogIndex;
+import ch.nevill.boxroyal.log.GameLogReader;
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.Round;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Reconstructs the state of a logged match at any round. The state is loaded from the nearest
+ * keyframe at or before the round, and the rounds after it are simulated again from their logged
+ * operations. Seeking forward continues from the current round if no keyframe is closer.
+ */
+public class MatchReplayer implements Closeable {
+  private final File file;
+  private final GameLogIndex index;
+  private final MatchState startState;
+  private final BoxGrid grid;
+  private GameLogReader reader = null;
+  private LogReplay replay = null;
+
+  public MatchReplayer(File file) throws IOException {
+    this.file = file;
+    this.index = GameLogIndex.read(file);
+    try (GameLogReader startReader = GameLogReader.open(file)) {
+      this.startState = startReader.getStartState();
+    }
+    this.grid = BoxGrid.fromState(startState);
+  }
+
+  public MatchState getStartState() {
+    return startState;
+  }
+
+  /**
+   * Returns the full state at the start of the given round, or absent if the log ends before.
+   */
+  public Optional<MatchState> seek(int round) throws IOException {
+    Preconditions.checkArgument(round >= startState.getRound(),
+        "Round %s is before the start of the match", round);
+    int keyframe = index.findKeyframe(round);
+    int keyframeRound = keyframe >= 0 ? index.getRound(keyframe) : startState.getRound();
+    if (replay == null || replay.getState().getRound() > round
+        || replay.getState().getRound() < keyframeRound) {
+      restart(keyframe);
+    }
+
+    while (replay.getState().getRound() < round) {
+      Round logged = reader.readRound();
+      if (logged == null) {
+        return Optional.absent();
+      }
+      replay.replayRound(logged);
+    }
+
+    MatchState.Builder fullState = MatchState.newBuilder();
+    replay.getState().writeTo(fullState);
+    grid.writeTo(fullState);
+    return Optional.of(fullState.build());
+  }
+
+  private void restart(int keyframe) throws IOException {
+    close();
+    MatchState initialState;
+    if (keyframe >= 0) {
+      reader = GameLogReader.open(file, index.getOffset(keyframe));
+      initialState = reader.readKeyframe();
+      if (initialState == null) {
+        throw new InvalidProtocolBufferException(
+            String.format("No keyframe at offset %d", index.getOffset(keyframe)));
+      }
+    } else {
+      reader = GameLogReader.open(file);
+      initialState = reader.getStartState();
+    }
+    replay = new LogReplay(initialState, grid);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (reader != null) {
+      reader.close();
+      reader = null;
+      replay = null;
+    }
+  }
+}
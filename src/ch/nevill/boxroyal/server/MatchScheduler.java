@@ -4,5 +4,16 @@ import com.google.common.base.Optional;
 import com.google.common.util.concurrent.ListenableFutureTask;
 
 public interface MatchScheduler {
-  public Optional<ListenableFutureTask<MatchSimulator>> getNextMatch(int matchId);
+  public Optional<ListenableFutureTask<?>> getNextMatch(int matchId);
+
+  /**
+   * Returns the number of matches which could be started right away, an estimate which may be
+   * slightly out of date.
+   */
+  public int getPendingMatchCount();
+
+  /**
+   * Sets a listener to run whenever a new match may have become available.
+   */
+  public void setWorkListener(Runnable listener);
 }
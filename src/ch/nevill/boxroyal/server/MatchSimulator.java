@@ -1,43 +1,160 @@
 package ch.nevill.boxroyal.server;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
-import ch.nevill.boxroyal.proto.GameLog;
+import ch.nevill.boxroyal.arena.Arena;
+import ch.nevill.boxroyal.arena.BoxGrid;
+import ch.nevill.boxroyal.events.MatchEventBus;
+import ch.nevill.boxroyal.log.Checkpoint;
+import ch.nevill.boxroyal.log.CheckpointStore;
+import ch.nevill.boxroyal.log.CheckpointWriter;
+import ch.nevill.boxroyal.log.GameLogStore;
+import ch.nevill.boxroyal.log.GameLogWriter;
+import ch.nevill.boxroyal.metrics.Histogram;
+import ch.nevill.boxroyal.metrics.MetricRegistry;
 import ch.nevill.boxroyal.proto.MatchState;
 import ch.nevill.boxroyal.proto.Operation;
+import ch.nevill.boxroyal.proto.OperationError;
 import ch.nevill.boxroyal.proto.Player;
 import ch.nevill.boxroyal.proto.Round;
-import ch.nevill.boxroyal.proto.Soldier;
+import ch.nevill.boxroyal.proto.StateUpdate;
 import ch.nevill.boxroyal.proto.View;
 
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureFallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 public class MatchSimulator implements Runnable {
-  private static final Log log = LogFactory.getLog(MatchSimulator.class);
-  private static final int MAX_ROUNDS = 200;
+  private static final MatchEventBus events = MatchEventBus.getDefault();
+  static final int MAX_ROUNDS = 200;
+  // Time a resumed match waits for its players to reattach before it continues without them.
+  private static final long REATTACH_TIMEOUT_SECONDS = 60;
+  private static final int TOKEN_BYTES = 16;
+  private static final SecureRandom tokenRandom = new SecureRandom();
+
+  private static final Histogram ROUND_NANOS =
+      MetricRegistry.getDefault().histogram("match.round.nanos");
+  private static final Histogram COLLECT_NANOS =
+      MetricRegistry.getDefault().histogram("match.collect.nanos");
+  private static final Histogram POST_STEP_NANOS =
+      MetricRegistry.getDefault().histogram("match.post_step.nanos");
+  private static final Histogram TRANSMIT_NANOS =
+      MetricRegistry.getDefault().histogram("match.transmit.nanos");
+  // Traffic of the players of a match, spectators are not included.
+  private static final Histogram BYTES_SENT =
+      MetricRegistry.getDefault().histogram("match.bytes_sent");
+  private static final Histogram BYTES_RECEIVED =
+      MetricRegistry.getDefault().histogram("match.bytes_received");
 
-  final MatchState.Builder simulationState;
-  GameLog.Builder gameLog;
+  private final SimulationState state;
+  private final StepSimulator step;
+  // Only set if players see just the part of the state in their line of sight.
+  private final FogOfWar fog;
+  private final BoxGrid grid;
+  private final MatchState arenaState;
+  private final GameLogStore logStore;
+  private GameLogWriter logWriter = null;
+  // Only set if the match is checkpointed.
+  private final CheckpointStore checkpointStore;
+  private CheckpointWriter checkpointWriter = null;
+  // Checkpoint the match was resumed from, or null.
+  private final Checkpoint resumedFrom;
+  private final boolean resumed;
+  private final MatchRegistry registry;
   private final ImmutableList<MatchClient> players;
-  private final Map<Integer, Soldier.Builder> soldierIdMap;
+  private final ImmutableList<String> playerTokens;
+  private final Queue<Client> pendingSpectators = new ConcurrentLinkedQueue<>();
+  private final BlockingQueue<Reattachment> pendingReattachments = new LinkedBlockingQueue<>();
+  // Only accessed by the match thread
+  private final List<Client> spectators = new ArrayList<>();
+  private final List<Reattachment> reattachments = new ArrayList<>();
 
   private static class MatchClient {
-    public final Client client;
+    // Only replaced on the match thread, when a client reattaches.
+    public Client client;
     public final Player player;
+    private ListenableFuture<List<Operation>> lateTurn = null;
+    private boolean disconnected = false;
+
     public MatchClient(Client client, Player player) {
       this.client = client;
       this.player = player;
     }
+
+    public void attach(Client newClient) {
+      client = newClient;
+      lateTurn = null;
+      disconnected = false;
+    }
+
+    public ListenableFuture<List<Operation>> requestTurn() {
+      if (lateTurn == null) {
+        return client.receiveOperations();
+      }
+
+      // A turn which missed its deadline still has to be read off the connection and dropped
+      // before the turn for the current round can be received, also if it turned out invalid.
+      ListenableFuture<List<Operation>> skippedTurn = Futures.withFallback(lateTurn,
+          new FutureFallback<List<Operation>>() {
+            @Override
+            public ListenableFuture<List<Operation>> create(Throwable t) {
+              return Futures.immediateFuture(Collections.<Operation>emptyList());
+            }
+          });
+      lateTurn = null;
+      return Futures.transform(skippedTurn, new AsyncFunction<List<Operation>, List<Operation>>() {
+        @Override
+        public ListenableFuture<List<Operation>> apply(List<Operation> skipped) {
+          return client.receiveOperations();
+        }
+      });
+    }
+
+    public void markLate(ListenableFuture<List<Operation>> turn) {
+      lateTurn = turn;
+    }
+  }
+
+  public MatchSimulator(List<Client> players, Arena arena, GameLogStore logStore) {
+    this(players, arena, logStore, new MatchRegistry());
+  }
+
+  public MatchSimulator(List<Client> players, Arena arena, GameLogStore logStore,
+      MatchRegistry registry) {
+    this(players, arena, logStore, registry, null);
+  }
+
+  /**
+   * @param checkpointStore store to checkpoint the match to, or null
+   */
+  public MatchSimulator(List<Client> players, Arena arena, GameLogStore logStore,
+      MatchRegistry registry, CheckpointStore checkpointStore) {
+    this(players, arena, logStore, registry, checkpointStore, createTokens(players.size()),
+        null);
   }
 
-  public MatchSimulator(List<Client> players, MatchState startState) {
+  private MatchSimulator(List<Client> players, Arena arena, GameLogStore logStore,
+      MatchRegistry registry, CheckpointStore checkpointStore,
+      ImmutableList<String> playerTokens, Checkpoint resumedFrom) {
+    MatchState startState = arena.getState();
     if (players.size() != startState.getConfig().getPlayerCount()) {
       throw new IllegalArgumentException();
     }
@@ -46,62 +163,537 @@ public class MatchSimulator implements Runnable {
       playersBuilder.add(new MatchClient(players.get(i), startState.getConfig().getPlayer(i)));
     }
     this.players = playersBuilder.build();
-    this.simulationState = startState.toBuilder();
-    this.soldierIdMap = new HashMap<>();
-    for (Soldier.Builder s : this.simulationState.getSoldierBuilderList()) {
-      this.soldierIdMap.put(s.getSoldierId(), s);
+    this.grid = arena.getGrid();
+    this.arenaState = startState;
+    this.logStore = logStore;
+    this.registry = registry;
+    this.checkpointStore = checkpointStore;
+    this.playerTokens = playerTokens;
+    this.resumedFrom = resumedFrom;
+    this.resumed = resumedFrom != null;
+    this.state = SimulationState.fromState(startState);
+    this.step = new StepSimulator(state, grid);
+    this.fog = startState.getConfig().getFogOfWar()
+        ? new FogOfWar(state, arena.getSightLines()) : null;
+  }
+
+  /**
+   * Rebuilds a match from its latest checkpoint. The match continues once its players
+   * reattached with their tokens, or after a timeout without the missing ones.
+   */
+  static MatchSimulator resume(Checkpoint checkpoint, GameLogStore logStore,
+      MatchRegistry registry, CheckpointStore checkpointStore) {
+    Arena arena = new Arena(BoxGrid.fromState(checkpoint.getStartState()), checkpoint.getState());
+    List<Client> players = new ArrayList<>();
+    for (int i = 0; i < checkpoint.getPlayerTokens().size(); i++) {
+      players.add(new DetachedClient());
     }
+    return new MatchSimulator(players, arena, logStore, registry, checkpointStore,
+        checkpoint.getPlayerTokens(), checkpoint);
+  }
+
+  private static ImmutableList<String> createTokens(int count) {
+    ImmutableList.Builder<String> tokens = ImmutableList.builder();
+    byte[] token = new byte[TOKEN_BYTES];
+    for (int i = 0; i < count; i++) {
+      tokenRandom.nextBytes(token);
+      tokens.add(BaseEncoding.base16().lowerCase().encode(token));
+    }
+    return tokens.build();
+  }
+
+  ImmutableList<String> getPlayerTokens() {
+    return playerTokens;
   }
 
   private int getRoundId() {
-    return simulationState.getRound();
+    return state.getRound();
   }
 
   private int getMatchId() {
-    return simulationState.getConfig().getMatchId();
+    return state.getMatchId();
   }
 
-  @Override
-  public void run() {
-    gameLog.setStartState(simulationState.build());
-    for (MatchClient player : players) {
+  /**
+   * Adds a read-only observer to the match. It receives the full state of the next round played,
+   * followed by the same views as the players.
+   */
+  void addSpectator(Client spectator) {
+    pendingSpectators.add(spectator);
+  }
+
+  /**
+   * Replaces the client of a player, which receives the full state before the next round it
+   * plays. After the match, the client is handed to the given player entry.
+   */
+  void reattach(int playerIndex, Client client, PlayerEntry afterMatch) {
+    pendingReattachments.add(new Reattachment(playerIndex, client, afterMatch));
+  }
+
+  private static final class Reattachment {
+    final int playerIndex;
+    final Client client;
+    final PlayerEntry afterMatch;
+
+    Reattachment(int playerIndex, Client client, PlayerEntry afterMatch) {
+      this.playerIndex = playerIndex;
+      this.client = client;
+      this.afterMatch = afterMatch;
+    }
+  }
+
+  private void admitReattachments() {
+    for (Reattachment reattachment; (reattachment = pendingReattachments.poll()) != null; ) {
+      admitReattachment(reattachment);
+    }
+  }
+
+  private void admitReattachment(Reattachment reattachment) {
+    MatchClient player = players.get(reattachment.playerIndex);
+    // The replaced connection may still be open, it must neither play on nor return to the lobby.
+    if (!(player.client instanceof DetachedClient)) {
+      player.client.close(new IOException("Replaced by a reattached connection"));
+    }
+    player.attach(reattachment.client);
+    reattachments.add(reattachment);
+    events.reattach(getMatchId(), getRoundId(), player.player.getId());
+    try {
+      player.client.transmit(new ViewFrame(createInitialView(reattachment.playerIndex,
+          buildFullState())));
+    } catch (IOException e) {
+      events.transmitFailed(getMatchId(), getRoundId(), player.player.getId(), e);
+    }
+  }
+
+  /**
+   * Waits until all players of a resumed match reattached, or the timeout passed.
+   */
+  private void awaitReattachments() {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(REATTACH_TIMEOUT_SECONDS);
+    while (true) {
+      boolean detached = false;
+      for (MatchClient player : players) {
+        detached |= player.client instanceof DetachedClient;
+      }
+      long remaining = deadline - System.nanoTime();
+      if (!detached || remaining <= 0) {
+        return;
+      }
       try {
-        player.client.transmitState(View.newBuilder().setState(gameLog.getStartState()).build());
-      } catch (IOException e) {
-        log.error(String.format("Match %d: Error transmitting initial state to player %s",
-            getRoundId(), player.client.getName()), e);
+        Reattachment reattachment = pendingReattachments.poll(remaining, TimeUnit.NANOSECONDS);
+        if (reattachment != null) {
+          admitReattachment(reattachment);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
         return;
       }
     }
+  }
+
+  /**
+   * Hands reattached clients still playing at the end of the match, or waiting to reattach, to
+   * their player entries.
+   */
+  private void releaseReattachedClients() {
+    for (Reattachment reattachment : reattachments) {
+      if (players.get(reattachment.playerIndex).client == reattachment.client) {
+        reattachment.afterMatch.addPlayers(Collections.singleton(reattachment.client));
+      }
+    }
+    for (Reattachment reattachment; (reattachment = pendingReattachments.poll()) != null; ) {
+      reattachment.afterMatch.addPlayers(Collections.singleton(reattachment.client));
+    }
+  }
+
+  private void collectTurns(Round.Builder round) {
+    List<ListenableFuture<List<Operation>>> turns = new ArrayList<>(players.size());
+    for (MatchClient player : players) {
+      turns.add(player.requestTurn());
+    }
+
+    long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(state.getConfig().getTurnTimeoutMillis());
+    for (int i = 0; i < players.size(); i++) {
+      MatchClient player = players.get(i);
+      ListenableFuture<List<Operation>> turn = turns.get(i);
+      try {
+        List<Operation> operations = Uninterruptibles.getUninterruptibly(
+            turn, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        step.runPlayerOperations(player.player.getId(), operations);
+      } catch (TimeoutException e) {
+        player.markLate(turn);
+        StepSimulator.countError(OperationError.MISSING_TURN);
+        round.addOperationBuilder()
+            .setPlayerId(player.player.getId())
+            .setError(OperationError.MISSING_TURN);
+      } catch (ExecutionException e) {
+        if (player.client.isConnected()) {
+          events.turnFailed(getMatchId(), getRoundId(), player.player.getId(), e.getCause());
+        } else if (!player.disconnected) {
+          player.disconnected = true;
+          events.disconnect(getMatchId(), getRoundId(), player.player.getId());
+        }
+        StepSimulator.countError(OperationError.MISSING_TURN);
+        round.addOperationBuilder()
+            .setPlayerId(player.player.getId())
+            .setError(OperationError.MISSING_TURN);
+      }
+    }
+  }
+
+  private MatchState buildFullState() {
+    MatchState.Builder fullState = MatchState.newBuilder();
+    state.writeTo(fullState);
+    grid.writeTo(fullState);
+    return fullState.build();
+  }
+
+  private ViewFrame createFullStateFrame() {
+    return new ViewFrame(View.newBuilder().setState(buildFullState()).build());
+  }
+
+  /**
+   * Creates the frame of the round. An update frame supplies the full state to clients which
+   * fell behind, computed once for all of them.
+   */
+  private ViewFrame createRoundFrame() {
+    if (!state.getConfig().getDeltaViews()) {
+      return createFullStateFrame();
+    }
+
+    // Boxes and config never change during a match.
+    StateUpdate.Builder update = StateUpdate.newBuilder();
+    state.writeUpdate(update);
+    return new ViewFrame(View.newBuilder().setUpdate(update).build(),
+        Suppliers.memoize(new Supplier<ViewFrame>() {
+          @Override
+          public ViewFrame get() {
+            return createFullStateFrame();
+          }
+        }));
+  }
+
+  private ViewFrame createPlayerFullStateFrame(int player) {
+    MatchState.Builder visibleState = MatchState.newBuilder();
+    fog.writeState(player, visibleState);
+    grid.writeTo(visibleState);
+    return new ViewFrame(View.newBuilder().setState(visibleState).build());
+  }
+
+  /**
+   * Creates the frame of the player at the given index, with fog of war enabled. The full state
+   * is only supplied on the match thread, while the frame is transmitted.
+   */
+  private ViewFrame createPlayerFrame(final int player) {
+    if (!state.getConfig().getDeltaViews()) {
+      return createPlayerFullStateFrame(player);
+    }
 
-    for (; getRoundId() < MAX_ROUNDS; simulationState.setRound(getRoundId() + 1)) {
-      Round.Builder round = gameLog.addRoundBuilder().setRoundId(getRoundId());
-      StepSimulator step = new StepSimulator(
-          ImmutableMap.copyOf(soldierIdMap), simulationState, round);
-      step.runPreStep();
+    StateUpdate.Builder update = StateUpdate.newBuilder();
+    fog.writeUpdate(player, update);
+    return new ViewFrame(View.newBuilder().setUpdate(update).build(), new Supplier<ViewFrame>() {
+      @Override
+      public ViewFrame get() {
+        return createPlayerFullStateFrame(player);
+      }
+    });
+  }
 
+  /**
+   * Creates the first view of the player at the given index, which carries its id and the token
+   * to reattach with.
+   */
+  private View createInitialView(int player, MatchState fullState) {
+    View.Builder view = View.newBuilder()
+        .setPlayerId(players.get(player).player.getId())
+        .setReattachToken(playerTokens.get(player));
+    if (fog == null) {
+      view.setState(fullState);
+    } else {
+      fog.writeState(player, view.getStateBuilder());
+      grid.writeTo(view.getStateBuilder());
+    }
+    return view.build();
+  }
+
+  private void openCheckpoints(MatchState startState) {
+    if (checkpointStore == null) {
+      return;
+    }
+    try {
+      checkpointWriter = resumed
+          ? checkpointStore.append(getMatchId())
+          : checkpointStore.create(startState, playerTokens, logStore.getLocation(getMatchId()));
+    } catch (IOException e) {
+      events.checkpointFailed(getMatchId(), getRoundId(), e);
+      checkpointWriter = null;
+    }
+  }
+
+  private void checkpoint() {
+    if (checkpointWriter == null || getRoundId() % checkpointWriter.getInterval() != 0) {
+      return;
+    }
+    try {
+      checkpointWriter.write(state.toMatchState(), logWriter);
+    } catch (IOException e) {
+      events.checkpointFailed(getMatchId(), getRoundId(), e);
+      deleteCheckpoints();
+    }
+  }
+
+  /**
+   * Removes the checkpoints of the match, which can not be resumed any more.
+   */
+  private void deleteCheckpoints() {
+    if (checkpointWriter == null) {
+      return;
+    }
+    try {
+      checkpointWriter.delete();
+    } catch (IOException e) {
+      events.checkpointDeleteFailed(getMatchId(), getRoundId(), e);
+    }
+    checkpointWriter = null;
+  }
+
+  /**
+   * Continues the game log of a resumed match where it was at the checkpoint, dropping the
+   * rounds played after it.
+   */
+  private void resumeLog() {
+    if (!resumedFrom.hasLog()) {
+      events.logFailed(getMatchId(), getRoundId(),
+          new IOException("Game log can not be continued from the checkpoint"));
+      return;
+    }
+    try {
+      logWriter = logStore.resumeWriter(resumedFrom.getLogLocation(),
+          resumedFrom.getLogLength(), resumedFrom.getKeyframeIndex());
+    } catch (IOException e) {
+      events.logFailed(getMatchId(), getRoundId(), e);
+      closeLog();
+    }
+  }
+
+  private void openLog(MatchState startState) {
+    try {
+      logWriter = logStore.openWriter(getMatchId());
+      logWriter.writeStartState(startState);
+    } catch (IOException e) {
+      events.logFailed(getMatchId(), getRoundId(), e);
+      closeLog();
+    }
+  }
+
+  private void logRound(Round round) {
+    if (logWriter == null) {
+      return;
+    }
+    try {
+      logWriter.writeRound(round);
+    } catch (IOException e) {
+      events.logFailed(getMatchId(), round.getRoundId(), e);
+      closeLog();
+    }
+  }
+
+  private void logKeyframe() {
+    if (logWriter == null) {
+      return;
+    }
+    int interval = logWriter.getKeyframeInterval();
+    if (interval <= 0 || getRoundId() % interval != 0) {
+      return;
+    }
+    try {
+      logWriter.writeKeyframe(state.toMatchState());
+    } catch (IOException e) {
+      events.logFailed(getMatchId(), getRoundId(), e);
+      closeLog();
+    }
+  }
+
+  private void logEndState() {
+    if (logWriter == null) {
+      return;
+    }
+    try {
+      logWriter.writeEndState(state.toMatchState());
+    } catch (IOException e) {
+      events.logFailed(getMatchId(), getRoundId(), e);
+      closeLog();
+    }
+  }
+
+  private void closeLog() {
+    if (logWriter == null) {
+      return;
+    }
+    try {
+      logWriter.close();
+    } catch (IOException e) {
+      events.logCloseFailed(getMatchId(), getRoundId(), e);
+    }
+    logWriter = null;
+  }
+
+  private void transmitToPlayer(MatchClient player, ViewFrame frame) {
+    try {
+      player.client.transmit(frame);
+    } catch (IOException e) {
+      events.transmitFailed(getMatchId(), getRoundId(), player.player.getId(), e);
+    }
+  }
+
+  private void transmitToSpectators(ViewFrame frame) {
+    for (Iterator<Client> i = spectators.iterator(); i.hasNext(); ) {
+      if (!transmitToSpectator(i.next(), frame)) {
+        i.remove();
+      }
+    }
+  }
+
+  /**
+   * Starts sending views to the spectators added since the last round, beginning with a full
+   * state view. The full state of the round frame is reused for this.
+   */
+  private void admitSpectators(ViewFrame roundFrame) {
+    if (pendingSpectators.isEmpty()) {
+      return;
+    }
+    ViewFrame fullFrame = roundFrame != null
+        ? roundFrame.getFullStateFrame().get() : createFullStateFrame();
+    for (Client spectator; (spectator = pendingSpectators.poll()) != null; ) {
+      if (transmitToSpectator(spectator, fullFrame)) {
+        spectators.add(spectator);
+        events.spectatorJoined(getMatchId(), getRoundId(), spectators.size());
+      }
+    }
+  }
+
+  private boolean transmitToSpectator(Client spectator, ViewFrame frame) {
+    if (!spectator.isConnected()) {
+      return false;
+    }
+    try {
+      spectator.transmit(frame);
+      return true;
+    } catch (IOException e) {
+      events.spectatorDropped(getMatchId(), getRoundId(), e);
+      return false;
+    }
+  }
+
+  @Override
+  public void run() {
+    long bytesSent = 0;
+    long bytesReceived = 0;
+    for (MatchClient player : players) {
+      bytesSent -= player.client.getBytesSent();
+      bytesReceived -= player.client.getBytesReceived();
+    }
+    registry.register(getMatchId(), this);
+    try {
+      runMatch();
+    } finally {
+      registry.unregister(getMatchId(), this);
+      closeLog();
+      deleteCheckpoints();
+      releaseReattachedClients();
       for (MatchClient player : players) {
+        bytesSent += player.client.getBytesSent();
+        bytesReceived += player.client.getBytesReceived();
+      }
+      BYTES_SENT.record(bytesSent);
+      BYTES_RECEIVED.record(bytesReceived);
+    }
+  }
+
+  private void runMatch() {
+    MatchState fullStartState = buildFullState();
+    // The seed lets log verification regenerate the arena.
+    MatchState logStartState = arenaState.hasArenaSeed()
+        ? fullStartState.toBuilder().setArenaSeed(arenaState.getArenaSeed()).build()
+        : fullStartState;
+    if (resumed) {
+      resumeLog();
+    } else {
+      openLog(logStartState);
+    }
+
+    openCheckpoints(logStartState);
+    if (!resumed) {
+      // The match can be resumed from its start until the first regular checkpoint.
+      checkpoint();
+    }
+
+    if (fog != null) {
+      fog.update();
+    }
+    if (resumed) {
+      events.matchResumed(getMatchId(), getRoundId());
+      awaitReattachments();
+    } else {
+      for (int i = 0; i < players.size(); i++) {
+        MatchClient player = players.get(i);
         try {
-          for (Operation operation : player.client.receiveOperations()) {
-            step.runPlayerOperation(player.player.getId(), operation);
-          }
+          player.client.transmit(new ViewFrame(createInitialView(i, fullStartState)));
         } catch (IOException e) {
-          log.warn(String.format("Match %d:%d: Error receiving turn from player %d",
-              getMatchId(), getRoundId(), player.client.getName()), e);
+          events.matchAborted(getMatchId(), getRoundId(), player.player.getId(), e);
+          return;
         }
       }
+    }
 
+    admitSpectators(null);
+
+    while (getRoundId() < MAX_ROUNDS) {
+      long roundStart = System.nanoTime();
+      Round.Builder round = Round.newBuilder().setRoundId(getRoundId());
+      step.runPreStep(round);
+
+      collectTurns(round);
+      long collected = System.nanoTime();
       step.runPostStep();
-      MatchState roundEnd = simulationState.build();
+      long postStepped = System.nanoTime();
+      Round completed = round.build();
+      logRound(completed);
 
-      for (MatchClient player : players) {
-        try {
-          player.client.transmitState(View.newBuilder().setState(roundEnd).build());
-        } catch (IOException e) {
-          log.warn(String.format("Match %d:%d: Error transmitting result to player %d",
-              getMatchId(), getRoundId(), player.client.getName()), e);
+      // Views always carry the id of the round clients are expected to play next.
+      state.setRound(getRoundId() + 1);
+      logKeyframe();
+      checkpoint();
+
+      long transmitStart = System.nanoTime();
+      // Encoded once and shared by all players and spectators. Under fog of war only spectators
+      // see the complete state.
+      ViewFrame frame = fog == null || !spectators.isEmpty() ? createRoundFrame() : null;
+      if (fog == null) {
+        for (MatchClient player : players) {
+          transmitToPlayer(player, frame);
+        }
+      } else {
+        fog.update();
+        for (int i = 0; i < players.size(); i++) {
+          transmitToPlayer(players.get(i), createPlayerFrame(i));
         }
       }
+      if (frame != null) {
+        transmitToSpectators(frame);
+      }
+      admitSpectators(frame);
+      admitReattachments();
+
+      long roundEnd = System.nanoTime();
+      ROUND_NANOS.record(roundEnd - roundStart);
+      COLLECT_NANOS.record(collected - roundStart);
+      POST_STEP_NANOS.record(postStepped - collected);
+      TRANSMIT_NANOS.record(roundEnd - transmitStart);
+      events.roundComplete(getMatchId(), completed.getRoundId(), completed.getOperationCount(),
+          roundEnd - roundStart);
     }
+    logEndState();
   }
 }
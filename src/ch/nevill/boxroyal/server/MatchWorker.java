@@ -0,0 +1,313 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.nevill.boxroyal.arena.RandomArenaBuilder;
+import ch.nevill.boxroyal.events.MatchEventBus;
+import ch.nevill.boxroyal.events.MatchEventCounter;
+import ch.nevill.boxroyal.events.MatchEventLogger;
+import ch.nevill.boxroyal.log.GameLogStore;
+import ch.nevill.boxroyal.log.GameLogWriter;
+import ch.nevill.boxroyal.log.StreamGameLogWriter;
+import ch.nevill.boxroyal.metrics.MetricRegistry;
+import ch.nevill.boxroyal.proto.CoordinatorMessage;
+import ch.nevill.boxroyal.proto.GameLogChunk;
+import ch.nevill.boxroyal.proto.KeyframeIndex;
+import ch.nevill.boxroyal.proto.MatchResult;
+import ch.nevill.boxroyal.proto.PlayerDisconnect;
+import ch.nevill.boxroyal.proto.PlayerTurn;
+import ch.nevill.boxroyal.proto.StartMatch;
+import ch.nevill.boxroyal.proto.WorkerMessage;
+import ch.nevill.boxroyal.proto.WorkerStatus;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.protobuf.ByteString;
+
+/**
+ * Runs matches handed off by a {@link MatchCoordinator}. The worker connects to the coordinator,
+ * reports how many matches it runs and how many it can take, and plays the matches it is sent
+ * with the players connected to the coordinator. Results and game logs are sent back to the
+ * coordinator, the worker keeps no state of its own.
+ *
+ * <p>The service terminates once the connection to the coordinator is lost, after the players of
+ * its running matches were disconnected.
+ */
+public class MatchWorker extends AbstractExecutionThreadService {
+  private static final Log log = LogFactory.getLog(MatchWorker.class);
+  private static final String DEFAULT_HOST = "localhost";
+  private static final int STATUS_INTERVAL = 1000;
+  private static final int KEYFRAME_INTERVAL = 20;
+
+  private final InetSocketAddress coordinatorAddress;
+  private final int capacity;
+  private final GameLogStore logStore = new LinkGameLogStore();
+  private final Map<Integer, ImmutableList<RemoteClient>> matches = new ConcurrentHashMap<>();
+  private final AtomicInteger activeMatches = new AtomicInteger();
+  // Start messages read, counted once a match is included in the active matches.
+  private final AtomicInteger startedMatches = new AtomicInteger();
+  private final ExecutorService matchExecutor = Executors.newCachedThreadPool();
+  private final ScheduledExecutorService statusExecutor =
+      Executors.newSingleThreadScheduledExecutor();
+  private ClusterLink link = null;
+
+  public MatchWorker(InetSocketAddress coordinatorAddress, int capacity) {
+    this.coordinatorAddress = coordinatorAddress;
+    this.capacity = capacity;
+  }
+
+  /**
+   * Stores game logs by sending them to the coordinator.
+   */
+  private final class LinkGameLogStore implements GameLogStore {
+    @Override
+    public GameLogWriter openWriter(int matchId) {
+      return new StreamGameLogWriter(new LogChunkStream(matchId), KEYFRAME_INTERVAL);
+    }
+
+    @Override
+    public String getLocation(int matchId) {
+      return null;
+    }
+
+    @Override
+    public GameLogWriter resumeWriter(String location, long length, KeyframeIndex keyframes)
+        throws IOException {
+      throw new IOException("Logs sent to the coordinator can not be continued");
+    }
+  }
+
+  /**
+   * Sends everything written up to every flush as one chunk of the game log.
+   */
+  private final class LogChunkStream extends OutputStream {
+    private final int matchId;
+    private byte[] buffer = new byte[256];
+    private int size = 0;
+
+    LogChunkStream(int matchId) {
+      this.matchId = matchId;
+    }
+
+    @Override
+    public void write(int b) {
+      ensureCapacity(1);
+      buffer[size++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      ensureCapacity(len);
+      System.arraycopy(b, off, buffer, size, len);
+      size += len;
+    }
+
+    private void ensureCapacity(int length) {
+      if (size + length > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, size + length));
+      }
+    }
+
+    private void send(boolean closed) throws IOException {
+      if (size == 0 && !closed) {
+        return;
+      }
+      GameLogChunk.Builder chunk = GameLogChunk.newBuilder()
+          .setMatchId(matchId)
+          .setData(ByteString.copyFrom(buffer, 0, size));
+      if (closed) {
+        chunk.setClosed(true);
+      }
+      link.send(WorkerMessage.newBuilder().setLogChunk(chunk).build());
+      size = 0;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      send(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+      send(true);
+    }
+  }
+
+  @Override
+  protected void startUp() throws Exception {
+    Socket socket = new Socket();
+    socket.connect(coordinatorAddress);
+    link = new ClusterLink(socket);
+    log.info(String.format("Connected to coordinator %s with capacity %d", link.getName(),
+        capacity));
+    sendStatus();
+    statusExecutor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        sendStatus();
+      }
+    }, STATUS_INTERVAL, STATUS_INTERVAL, TimeUnit.MILLISECONDS);
+  }
+
+  private void sendStatus() {
+    // Read first, every match it counts is already counted as active.
+    int started = startedMatches.get();
+    try {
+      link.send(WorkerMessage.newBuilder()
+          .setStatus(WorkerStatus.newBuilder()
+              .setActiveMatches(activeMatches.get())
+              .setCapacity(capacity)
+              .setStartedMatches(started))
+          .build());
+    } catch (IOException e) {
+      // The reader notices the lost connection as well.
+    }
+  }
+
+  @Override
+  protected void run() throws IOException {
+    CoordinatorMessage message;
+    while ((message = CoordinatorMessage.parseDelimitedFrom(link.getInput())) != null) {
+      if (message.hasStartMatch()) {
+        startMatch(message.getStartMatch());
+      }
+      if (message.hasTurn()) {
+        PlayerTurn turn = message.getTurn();
+        RemoteClient player = getPlayer(turn.getMatchId(), turn.getPlayerIndex());
+        if (player != null) {
+          player.deliverTurn(turn);
+        }
+      }
+      if (message.hasDisconnect()) {
+        PlayerDisconnect disconnect = message.getDisconnect();
+        RemoteClient player = getPlayer(disconnect.getMatchId(), disconnect.getPlayerIndex());
+        if (player != null) {
+          player.disconnect(new IOException("Client disconnected from coordinator"));
+        }
+      }
+    }
+    log.info(String.format("Coordinator %s closed the connection", link.getName()));
+  }
+
+  private RemoteClient getPlayer(int matchId, int playerIndex) {
+    ImmutableList<RemoteClient> players = matches.get(matchId);
+    if (players == null || playerIndex < 0 || playerIndex >= players.size()) {
+      return null;
+    }
+    return players.get(playerIndex);
+  }
+
+  private void startMatch(StartMatch start) throws IOException {
+    try {
+      acceptMatch(start);
+    } finally {
+      startedMatches.incrementAndGet();
+    }
+  }
+
+  private void acceptMatch(StartMatch start) throws IOException {
+    final int matchId = start.getMatchId();
+    if (activeMatches.get() >= capacity || matches.containsKey(matchId)) {
+      sendResult(matchId, false, "Match rejected by worker");
+      return;
+    }
+
+    ImmutableList.Builder<RemoteClient> playersBuilder = ImmutableList.builder();
+    for (int i = 0; i < start.getPlayerNameCount(); i++) {
+      playersBuilder.add(new RemoteClient(link, matchId, i, start.getPlayerName(i)));
+    }
+    ImmutableList<RemoteClient> players = playersBuilder.build();
+    final MatchSimulator match;
+    try {
+      // Matches are built as configured by the coordinator.
+      MatchBuilder matchBuilder = new MatchBuilder(new RandomArenaBuilder(
+          start.getArenaSize().getWidth(), start.getArenaSize().getHeight()), start.getConfig(),
+          logStore);
+      match = matchBuilder.build(start.getConfig(), ImmutableList.<Client>copyOf(players));
+    } catch (RuntimeException e) {
+      log.error(String.format("Match %d: Error creating match", matchId), e);
+      sendResult(matchId, false, String.valueOf(e.getMessage()));
+      return;
+    }
+
+    matches.put(matchId, players);
+    activeMatches.incrementAndGet();
+    matchExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        boolean completed = false;
+        String error = null;
+        try {
+          match.run();
+          completed = true;
+        } catch (RuntimeException e) {
+          log.error(String.format("Match %d: Error running match", matchId), e);
+          error = String.valueOf(e.getMessage());
+        } finally {
+          matches.remove(matchId);
+          activeMatches.decrementAndGet();
+        }
+        try {
+          sendResult(matchId, completed, error);
+        } catch (IOException e) {
+          log.warn(String.format("Match %d: Result lost, coordinator is gone", matchId));
+        }
+      }
+    });
+  }
+
+  private void sendResult(int matchId, boolean completed, String error) throws IOException {
+    MatchResult.Builder result = MatchResult.newBuilder()
+        .setMatchId(matchId)
+        .setCompleted(completed);
+    if (error != null) {
+      result.setError(error);
+    }
+    link.send(WorkerMessage.newBuilder().setResult(result).build());
+    sendStatus();
+  }
+
+  @Override
+  protected void shutDown() {
+    statusExecutor.shutdownNow();
+    IOException cause = new IOException("Connection to coordinator lost");
+    for (ImmutableList<RemoteClient> players : matches.values()) {
+      for (RemoteClient player : players) {
+        player.disconnect(cause);
+      }
+    }
+    matchExecutor.shutdown();
+    link.close();
+  }
+
+  /**
+   * Arguments: [coordinator host] [capacity]
+   */
+  public static void main(String[] args) {
+    String host = args.length > 0 ? args[0] : DEFAULT_HOST;
+    int capacity = args.length > 1
+        ? Integer.parseInt(args[1]) : MatchCoordinator.DEFAULT_WORKER_CAPACITY;
+    MatchEventBus events = MatchEventBus.getDefault();
+    events.subscribe(new MatchEventLogger());
+    events.subscribe(new MatchEventCounter(MetricRegistry.getDefault()));
+    events.startAsync().awaitRunning();
+
+    MatchWorker worker = new MatchWorker(
+        new InetSocketAddress(host, MatchCoordinator.WORKER_PORT), capacity);
+    worker.startAsync().awaitTerminated();
+  }
+}
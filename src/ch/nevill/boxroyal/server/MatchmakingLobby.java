@@ -0,0 +1,256 @@
+package ch.nevill.boxroyal.server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import ch.nevill.boxroyal.metrics.MetricRegistry;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFutureTask;
+
+/**
+ * Lobby matching clients of similar rating. Waiting clients are kept in rating buckets in the
+ * order they arrived, so a scheduling pass only looks at the head of every bucket and forms all
+ * matches it can at once. Clients are dropped as soon as their connection closes instead of
+ * being checked on every pass. Clients which waited longer than a given time are also matched
+ * with long waiting clients of the neighbouring buckets.
+ */
+public class MatchmakingLobby implements MatchScheduler, PlayerEntry {
+  private static final Function<Object, Integer> NO_RATING = Functions.constant(0);
+
+  private final MatchFactory matchFactory;
+  private final int playersPerMatch;
+  private final Function<? super Client, Integer> ratingSource;
+  private final int bucketWidth;
+  private final long widenAfterNanos;
+  private volatile Runnable workListener = null;
+
+  // Guarded by this
+  // Waiting clients by rating bucket, with the time they started waiting in arrival order.
+  private final TreeMap<Integer, LinkedHashMap<Client, Long>> buckets = new TreeMap<>();
+  private final Map<Client, Integer> clientBuckets = new HashMap<>();
+  // Clients a disconnect listener was registered for.
+  private final Set<Client> trackedClients = new HashSet<>();
+  private final Queue<ImmutableList<Client>> formedMatches = new ArrayDeque<>();
+
+  public MatchmakingLobby(MatchFactory matchFactory, int playersPerMatch) {
+    this(matchFactory, playersPerMatch, NO_RATING, 1, 0, TimeUnit.SECONDS);
+  }
+
+  /**
+   * @param ratingSource returns the rating of a client, called once every time it enters the
+   *     lobby
+   * @param bucketWidth range of ratings matched with each other right away
+   * @param widenAfter time after which clients may be matched across buckets
+   */
+  public MatchmakingLobby(MatchFactory matchFactory, int playersPerMatch,
+      Function<? super Client, Integer> ratingSource, int bucketWidth, long widenAfter,
+      TimeUnit unit) {
+    Preconditions.checkArgument(playersPerMatch > 0, "Invalid player count %s", playersPerMatch);
+    Preconditions.checkArgument(bucketWidth > 0, "Invalid bucket width %s", bucketWidth);
+    this.matchFactory = matchFactory;
+    this.playersPerMatch = playersPerMatch;
+    this.ratingSource = ratingSource;
+    this.bucketWidth = bucketWidth;
+    this.widenAfterNanos = unit.toNanos(widenAfter);
+    MetricRegistry.getDefault().gauge("lobby.waiting", new Supplier<Integer>() {
+      @Override
+      public Integer get() {
+        return getWaitingCount();
+      }
+    });
+  }
+
+  @Override
+  public Optional<ListenableFutureTask<?>> getNextMatch(int matchId) {
+    final ImmutableList<Client> players;
+    synchronized (this) {
+      if (formedMatches.isEmpty()) {
+        formMatches(System.nanoTime());
+      }
+      players = formedMatches.poll();
+    }
+    if (players == null) {
+      return Optional.absent();
+    }
+
+    Runnable match = matchFactory.createMatch(matchId, players);
+    ListenableFutureTask<Void> matchTask = ListenableFutureTask.create(match, null);
+    Futures.addCallback(matchTask, new FutureCallback<Void>() {
+      @Override
+      public void onSuccess(Void result) {
+        addPlayers(players);
+      }
+      @Override
+      public void onFailure(Throwable t) {
+        addPlayers(players);
+      }
+    });
+    return Optional.<ListenableFutureTask<?>>of(matchTask);
+  }
+
+  /**
+   * Counts the matches already formed and those each bucket has enough clients for. Matches of
+   * long waiting clients across buckets are only counted once formed.
+   */
+  @Override
+  public synchronized int getPendingMatchCount() {
+    int count = formedMatches.size();
+    for (LinkedHashMap<Client, Long> waiting : buckets.values()) {
+      count += waiting.size() / playersPerMatch;
+    }
+    return count;
+  }
+
+  @Override
+  public void setWorkListener(Runnable listener) {
+    this.workListener = listener;
+  }
+
+  @Override
+  public void addPlayers(Iterable<Client> players) {
+    long now = System.nanoTime();
+    for (final Client player : players) {
+      if (!player.isConnected()) {
+        continue;
+      }
+      int bucket = getBucket(ratingSource.apply(player));
+      boolean track;
+      synchronized (this) {
+        LinkedHashMap<Client, Long> waiting = buckets.get(bucket);
+        if (waiting == null) {
+          waiting = new LinkedHashMap<>();
+          buckets.put(bucket, waiting);
+        }
+        waiting.put(player, now);
+        clientBuckets.put(player, bucket);
+        track = trackedClients.add(player);
+      }
+      if (track) {
+        player.addDisconnectListener(new Runnable() {
+          @Override
+          public void run() {
+            onDisconnect(player);
+          }
+        });
+      }
+    }
+
+    Runnable listener = workListener;
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  public synchronized int getWaitingCount() {
+    return clientBuckets.size();
+  }
+
+  private synchronized void onDisconnect(Client client) {
+    removeWaiting(client);
+    trackedClients.remove(client);
+  }
+
+  private int getBucket(int rating) {
+    // Rounds towards negative infinity, so that every bucket has the same width.
+    return rating >= 0 ? rating / bucketWidth : -((-rating - 1) / bucketWidth) - 1;
+  }
+
+  // Guarded by this
+  private void removeWaiting(Client client) {
+    Integer bucket = clientBuckets.remove(client);
+    if (bucket == null) {
+      return;
+    }
+    LinkedHashMap<Client, Long> waiting = buckets.get(bucket);
+    waiting.remove(client);
+    if (waiting.isEmpty()) {
+      buckets.remove(bucket);
+    }
+  }
+
+  // Guarded by this
+  private void formMatches(long now) {
+    // Long waiting clients from consecutive buckets, in rating order.
+    List<Client> carried = new ArrayList<>(playersPerMatch);
+    int carriedBucket = 0;
+    for (Map.Entry<Integer, LinkedHashMap<Client, Long>> bucket
+        : new TreeMap<>(buckets).entrySet()) {
+      LinkedHashMap<Client, Long> waiting = bucket.getValue();
+      // Clients carried over from a bucket further away are not matched with this one.
+      if (!carried.isEmpty() && bucket.getKey() != carriedBucket + 1) {
+        carried.clear();
+      }
+      while (waiting.size() >= playersPerMatch) {
+        if (!formBucketMatch(waiting)) {
+          break;
+        }
+      }
+
+      for (Map.Entry<Client, Long> entry : waiting.entrySet()) {
+        if (now - entry.getValue() < widenAfterNanos || carried.size() == playersPerMatch) {
+          break;
+        }
+        if (entry.getKey().isConnected()) {
+          carried.add(entry.getKey());
+          carriedBucket = bucket.getKey();
+        }
+      }
+      if (carried.size() == playersPerMatch) {
+        addMatch(carried);
+        carried.clear();
+      }
+    }
+  }
+
+  /**
+   * Forms a match from the oldest connected clients of a bucket, dropping disconnected ones on
+   * the way. Returns false if there are not enough of them left.
+   */
+  private boolean formBucketMatch(LinkedHashMap<Client, Long> waiting) {
+    List<Client> players = new ArrayList<>(playersPerMatch);
+    List<Client> disconnected = new ArrayList<>();
+    for (Iterator<Client> i = waiting.keySet().iterator();
+        i.hasNext() && players.size() < playersPerMatch; ) {
+      Client client = i.next();
+      if (client.isConnected()) {
+        players.add(client);
+      } else {
+        // The disconnect listener has not run yet.
+        disconnected.add(client);
+      }
+    }
+    for (Client client : disconnected) {
+      removeWaiting(client);
+    }
+    if (players.size() < playersPerMatch) {
+      return false;
+    }
+    addMatch(players);
+    return true;
+  }
+
+  private void addMatch(List<Client> players) {
+    for (Client player : players) {
+      removeWaiting(player);
+    }
+    formedMatches.add(ImmutableList.copyOf(players));
+  }
+}
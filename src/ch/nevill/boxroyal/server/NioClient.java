@@ -0,0 +1,431 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.nevill.boxroyal.metrics.Counter;
+import ch.nevill.boxroyal.metrics.Histogram;
+import ch.nevill.boxroyal.metrics.MetricRegistry;
+import ch.nevill.boxroyal.proto.Operation;
+import ch.nevill.boxroyal.proto.Turn;
+
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Client backed by a non-blocking socket channel. All channel I/O happens on the owning
+ * {@link ClientEventLoop}; match threads only exchange received messages and encoded views with
+ * it. The views queued for writing are limited in size, so that a slow reader costs the server a
+ * bounded amount of memory and never delays anyone else. Likewise, reading stops while the
+ * received messages nobody asked for yet reach a small limit.
+ */
+final class NioClient implements Client {
+  private static final Log log = LogFactory.getLog(NioClient.class);
+  private static final int INITIAL_READ_BUFFER_SIZE = 4096;
+  private static final int MAX_VARINT32_SIZE = 5;
+  // Received messages kept until requested, the client is not read from beyond that.
+  private static final int MAX_RECEIVED_MESSAGES = 2;
+
+  private static final Counter BYTES_SENT =
+      MetricRegistry.getDefault().counter("client.bytes_sent");
+  private static final Counter BYTES_RECEIVED =
+      MetricRegistry.getDefault().counter("client.bytes_received");
+  // Time from queuing a view to receiving the next message, usually the turn answering it.
+  private static final Histogram TURN_RESPONSE_NANOS =
+      MetricRegistry.getDefault().histogram("client.turn_response.nanos");
+  private static final Counter COALESCED =
+      MetricRegistry.getDefault().counter("client.coalesced_views");
+  private static final Counter OVERFLOW_DISCONNECTS =
+      MetricRegistry.getDefault().counter("client.overflow_disconnects");
+  private static final Counter OVERSIZED_MESSAGES =
+      MetricRegistry.getDefault().counter("client.oversized_messages");
+
+  // Delivered in place of a message over the size limit, compared by identity.
+  private static final byte[] OVERSIZED_MESSAGE = new byte[0];
+
+  private static final Function<byte[], List<Operation>> PARSE_TURN =
+      new Function<byte[], List<Operation>>() {
+        @Override
+        public List<Operation> apply(byte[] message) {
+          if (message == OVERSIZED_MESSAGE) {
+            throw new IllegalArgumentException("Turn exceeds the message size limit");
+          }
+          try {
+            return Turn.parseFrom(message).getOperationList();
+          } catch (InvalidProtocolBufferException e) {
+            throw new IllegalArgumentException("Malformed turn", e);
+          }
+        }
+      };
+
+  private final SocketChannel channel;
+  private final ClientEventLoop eventLoop;
+  private final String name;
+  private final int maxQueuedBytes;
+  private final OverflowPolicy overflowPolicy;
+  private final int maxMessageBytes;
+  private SelectionKey key;
+  private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+  private ByteBuffer[] writeBatch = new ByteBuffer[0];
+  private volatile boolean connected = true;
+  // Only written on the event loop thread
+  private volatile long bytesSent = 0;
+  private volatile long bytesReceived = 0;
+  // Time the oldest view not answered yet was queued, or 0.
+  private volatile long awaitingReplySince = 0;
+  // Set once a match requested a turn, spectators never answer views.
+  private volatile boolean playing = false;
+  // Bytes left of an oversized message being skipped, only accessed on the event loop thread
+  private int skipBytes = 0;
+
+  // Guarded by this
+  private final Queue<ByteBuffer> writeQueue = new ArrayDeque<>();
+  // Total size of the frames in the write queue
+  private long queuedBytes = 0;
+  private final Queue<byte[]> receivedMessages = new ArrayDeque<>();
+  // Set while reading is paused because the received messages are at their limit
+  private boolean readPaused = false;
+  private SettableFuture<byte[]> pendingMessage = null;
+  private IOException closeCause = null;
+  private List<Runnable> disconnectListeners = new ArrayList<>();
+
+  NioClient(SocketChannel channel, ClientEventLoop eventLoop, int maxQueuedBytes,
+      OverflowPolicy overflowPolicy, int maxMessageBytes) {
+    this.channel = channel;
+    this.eventLoop = eventLoop;
+    this.name = String.valueOf(channel.socket().getRemoteSocketAddress());
+    this.maxQueuedBytes = maxQueuedBytes;
+    this.overflowPolicy = overflowPolicy;
+    this.maxMessageBytes = maxMessageBytes;
+  }
+
+  /**
+   * Returns the payload of the next length-delimited message sent by the client.
+   */
+  ListenableFuture<byte[]> receiveMessage() {
+    synchronized (this) {
+      byte[] message = receivedMessages.poll();
+      if (message != null) {
+        if (readPaused) {
+          readPaused = false;
+          eventLoop.requestRead(this);
+        }
+        return Futures.immediateFuture(message);
+      }
+      if (closeCause != null) {
+        return Futures.immediateFailedFuture(closeCause);
+      }
+      Preconditions.checkState(pendingMessage == null || pendingMessage.isDone(),
+          "Message already requested from client %s", name);
+      pendingMessage = SettableFuture.create();
+      return pendingMessage;
+    }
+  }
+
+  @Override
+  public ListenableFuture<List<Operation>> receiveOperations() {
+    playing = true;
+    return Futures.transform(receiveMessage(), PARSE_TURN);
+  }
+
+  /**
+   * Queues the frame, or applies the overflow policy if the client is too far behind to queue
+   * it. Frames are never dropped on the event loop, only here on the sending thread.
+   */
+  @Override
+  public void transmit(ViewFrame frame) throws IOException {
+    if (!enqueue(frame.newBuffer(), false)) {
+      Optional<ViewFrame> fullStateFrame = overflowPolicy == OverflowPolicy.COALESCE
+          ? frame.getFullStateFrame() : Optional.<ViewFrame>absent();
+      if (!fullStateFrame.isPresent()) {
+        OVERFLOW_DISCONNECTS.increment();
+        IOException cause = new IOException(String.format(
+            "Client fell behind by more than %d bytes", maxQueuedBytes));
+        close(cause);
+        throw cause;
+      }
+      COALESCED.increment();
+      enqueue(fullStateFrame.get().newBuffer(), true);
+    }
+    if (!frame.expectsTurn()) {
+      // The last view of a match, the client waits in the lobby next.
+      awaitingReplySince = 0;
+    } else if (playing && awaitingReplySince == 0) {
+      awaitingReplySince = System.nanoTime();
+    }
+    eventLoop.requestWrite(this);
+  }
+
+  /**
+   * Adds a frame to the write queue, first dropping all frames not started yet if
+   * {@code replace} is set. Returns false if the frame would exceed the queue limit.
+   */
+  private synchronized boolean enqueue(ByteBuffer buffer, boolean replace) throws IOException {
+    if (closeCause != null) {
+      throw closeCause;
+    }
+    if (replace) {
+      // A partially written frame has to be completed, the client could not find the next one.
+      ByteBuffer head = writeQueue.peek();
+      writeQueue.clear();
+      queuedBytes = 0;
+      if (head != null && head.position() > 0) {
+        writeQueue.add(head);
+        queuedBytes = head.limit();
+      }
+    } else if (!writeQueue.isEmpty() && queuedBytes + buffer.remaining() > maxQueuedBytes) {
+      return false;
+    }
+    writeQueue.add(buffer);
+    queuedBytes += buffer.remaining();
+    return true;
+  }
+
+  @Override
+  public boolean isConnected() {
+    return connected;
+  }
+
+  @Override
+  public void addDisconnectListener(Runnable listener) {
+    synchronized (this) {
+      if (closeCause == null) {
+        disconnectListeners.add(listener);
+        return;
+      }
+    }
+    listener.run();
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  SocketChannel getChannel() {
+    return channel;
+  }
+
+  void setKey(SelectionKey key) {
+    this.key = key;
+  }
+
+  // Called on the event loop thread
+  void onReadable() throws IOException {
+    int read = channel.read(readBuffer);
+    if (read < 0) {
+      throw new IOException("Connection closed by peer");
+    }
+    bytesReceived += read;
+    BYTES_RECEIVED.add(read);
+    processReadBuffer();
+  }
+
+  // Called on the event loop thread, once reading was resumed.
+  void onReadResumed() throws IOException {
+    if (key == null) {
+      return;
+    }
+    // Messages may be left in the buffer from before reading was paused.
+    processReadBuffer();
+  }
+
+  private void processReadBuffer() throws IOException {
+    int requiredCapacity = 0;
+    readBuffer.flip();
+    while (readBuffer.hasRemaining() && !isReadPaused()) {
+      if (skipBytes > 0) {
+        int skipped = Math.min(skipBytes, readBuffer.remaining());
+        readBuffer.position(readBuffer.position() + skipped);
+        skipBytes -= skipped;
+        if (skipBytes == 0) {
+          deliverMessage(OVERSIZED_MESSAGE);
+        }
+        continue;
+      }
+
+      int frameStart = readBuffer.position();
+      int length = readVarint32(readBuffer);
+      if (length < 0) {
+        readBuffer.position(frameStart);
+        break;
+      }
+      if (length > maxMessageBytes) {
+        // Counted here, the turn is reported as missing once the message has been skipped.
+        OVERSIZED_MESSAGES.increment();
+        skipBytes = length;
+        continue;
+      }
+      if (readBuffer.remaining() < length) {
+        requiredCapacity = readBuffer.position() - frameStart + length;
+        readBuffer.position(frameStart);
+        break;
+      }
+
+      int offset = readBuffer.arrayOffset() + readBuffer.position();
+      byte[] message = Arrays.copyOfRange(readBuffer.array(), offset, offset + length);
+      readBuffer.position(readBuffer.position() + length);
+      deliverMessage(message);
+    }
+    readBuffer.compact();
+
+    if (requiredCapacity > readBuffer.capacity()) {
+      ByteBuffer larger = ByteBuffer.allocate(requiredCapacity);
+      readBuffer.flip();
+      larger.put(readBuffer);
+      readBuffer = larger;
+    }
+    synchronized (this) {
+      key.interestOps(interestOps());
+    }
+  }
+
+  private synchronized boolean isReadPaused() {
+    return readPaused;
+  }
+
+  // Guarded by this
+  private int interestOps() {
+    return (readPaused ? 0 : SelectionKey.OP_READ)
+        | (writeQueue.isEmpty() ? 0 : SelectionKey.OP_WRITE);
+  }
+
+  // Called on the event loop thread
+  void onWritable() throws IOException {
+    if (key == null) {
+      return;
+    }
+    synchronized (this) {
+      if (!writeQueue.isEmpty()) {
+        // Hand every queued frame to the kernel in a single gathering write.
+        int count = writeQueue.size();
+        writeBatch = writeQueue.toArray(writeBatch);
+        long written = channel.write(writeBatch, 0, count);
+        bytesSent += written;
+        BYTES_SENT.add(written);
+        Arrays.fill(writeBatch, 0, count, null);
+        while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining()) {
+          queuedBytes -= writeQueue.poll().limit();
+        }
+      }
+      key.interestOps(interestOps());
+    }
+  }
+
+  // Called on the event loop thread, by listeners rejecting a connection, on overflow, or by a
+  // match replacing the client
+  @Override
+  public void close(IOException cause) {
+    SettableFuture<byte[]> waiting;
+    List<Runnable> listeners;
+    synchronized (this) {
+      if (closeCause != null) {
+        return;
+      }
+      closeCause = cause;
+      connected = false;
+      writeQueue.clear();
+      queuedBytes = 0;
+      waiting = pendingMessage;
+      pendingMessage = null;
+      listeners = disconnectListeners;
+      disconnectListeners = null;
+    }
+    if (key != null) {
+      key.cancel();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      // Already closing, nothing left to do.
+    }
+    if (waiting != null) {
+      waiting.setException(cause);
+    }
+    for (Runnable listener : listeners) {
+      try {
+        listener.run();
+      } catch (RuntimeException e) {
+        log.error(String.format("Error in disconnect listener of client %s", name), e);
+      }
+    }
+  }
+
+  private void deliverMessage(byte[] message) {
+    long since = awaitingReplySince;
+    if (since != 0) {
+      awaitingReplySince = 0;
+      TURN_RESPONSE_NANOS.record(System.nanoTime() - since);
+    }
+
+    SettableFuture<byte[]> waiting;
+    synchronized (this) {
+      waiting = pendingMessage;
+      pendingMessage = null;
+      if (waiting == null || waiting.isDone()) {
+        keepMessage(message);
+        return;
+      }
+    }
+    // Complete outside the lock, listeners may run inline and request the next message.
+    if (!waiting.set(message)) {
+      synchronized (this) {
+        keepMessage(message);
+      }
+    }
+  }
+
+  // Guarded by this
+  private void keepMessage(byte[] message) {
+    receivedMessages.add(message);
+    if (receivedMessages.size() >= MAX_RECEIVED_MESSAGES) {
+      readPaused = true;
+    }
+  }
+
+  /**
+   * Decodes a varint32 length prefix, returning -1 if the buffer does not hold a complete one.
+   */
+  static int readVarint32(ByteBuffer buffer) throws IOException {
+    int result = 0;
+    for (int shift = 0; shift < MAX_VARINT32_SIZE * 7; shift += 7) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      byte b = buffer.get();
+      result |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        if (result < 0) {
+          throw new IOException("Negative frame length");
+        }
+        return result;
+      }
+    }
+    throw new IOException("Malformed frame length");
+  }
+}
@@ -0,0 +1,17 @@
+package ch.nevill.boxroyal.server;
+
+/**
+ * What to do with a client whose queued views exceed its outbound limit, usually because it reads
+ * slower than the match sends.
+ */
+public enum OverflowPolicy {
+  /**
+   * Drop all queued views not being written yet, and send the full state of the newest view
+   * instead.
+   */
+  COALESCE,
+  /**
+   * Close the connection.
+   */
+  DISCONNECT,
+}
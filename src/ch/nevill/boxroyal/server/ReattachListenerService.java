@@ -0,0 +1,91 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.nevill.boxroyal.proto.ClientRequest;
+
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Accepts players reconnecting to a running or resumed match. A player first sends a
+ * {@link ClientRequest} with the reattach token of its first view, and then plays on like before
+ * with the full state it is sent. After the match it enters the player entry like a new client.
+ */
+public class ReattachListenerService extends AbstractExecutionThreadService {
+  private static final Log log = LogFactory.getLog(ReattachListenerService.class);
+  private static final int SERVICE_PORT = 45682;
+
+  private ServerSocketChannel serverChannel = null;
+  private final MatchRegistry registry;
+  private final ClientEventLoop eventLoop;
+  private final PlayerEntry playerEntry;
+
+  public ReattachListenerService(MatchRegistry registry, ClientEventLoop eventLoop,
+      PlayerEntry playerEntry) {
+    this.registry = registry;
+    this.eventLoop = eventLoop;
+    this.playerEntry = playerEntry;
+  }
+
+  @Override
+  protected void startUp() throws Exception {
+    super.startUp();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().bind(new InetSocketAddress(SERVICE_PORT));
+    log.info(String.format("Listening for reattaching players on %s:%d",
+        serverChannel.socket().getInetAddress(), serverChannel.socket().getLocalPort()));
+  }
+
+  @Override
+  protected void run() throws Exception {
+    while (true) {
+      SocketChannel channel = serverChannel.accept();
+      final NioClient client = eventLoop.register(channel);
+      Futures.addCallback(client.receiveMessage(), new FutureCallback<byte[]>() {
+        @Override
+        public void onSuccess(byte[] message) {
+          reattach(client, message);
+        }
+        @Override
+        public void onFailure(Throwable t) {
+          // The connection is already closed.
+        }
+      });
+    }
+  }
+
+  private void reattach(NioClient client, byte[] message) {
+    ClientRequest request;
+    try {
+      request = ClientRequest.parseFrom(message);
+    } catch (InvalidProtocolBufferException e) {
+      client.close(new IOException("Malformed reattach request", e));
+      return;
+    }
+    if (!request.hasReattach()) {
+      client.close(new IOException("Expected a reattach request"));
+      return;
+    }
+
+    if (!registry.reattach(request.getReattach().getToken(), client, playerEntry)) {
+      log.info(String.format("Player %s sent an unknown reattach token", client.getName()));
+      client.close(new IOException("Unknown reattach token"));
+    }
+  }
+
+  @Override
+  protected void shutDown() throws Exception {
+    super.shutDown();
+    serverChannel.close();
+    serverChannel = null;
+  }
+}
@@ -0,0 +1,159 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import ch.nevill.boxroyal.proto.Operation;
+import ch.nevill.boxroyal.proto.PlayerTurn;
+import ch.nevill.boxroyal.proto.PlayerView;
+import ch.nevill.boxroyal.proto.WorkerMessage;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Player of a match run by a worker, connected to the coordinator rather than to the worker.
+ * Turns are forwarded by the coordinator in the order the player sent them, and views are sent
+ * back to it over the link.
+ */
+final class RemoteClient implements Client {
+  private final ClusterLink link;
+  private final int matchId;
+  private final int playerIndex;
+  private final String name;
+  // Guarded by this
+  private final Queue<ListenableFuture<List<Operation>>> receivedTurns = new ArrayDeque<>();
+  private SettableFuture<List<Operation>> pendingTurn = null;
+  private IOException closeCause = null;
+  private List<Runnable> disconnectListeners = new ArrayList<>();
+
+  RemoteClient(ClusterLink link, int matchId, int playerIndex, String name) {
+    this.link = link;
+    this.matchId = matchId;
+    this.playerIndex = playerIndex;
+    this.name = name;
+  }
+
+  @Override
+  public synchronized ListenableFuture<List<Operation>> receiveOperations() {
+    ListenableFuture<List<Operation>> turn = receivedTurns.poll();
+    if (turn != null) {
+      return turn;
+    }
+    if (closeCause != null) {
+      return Futures.immediateFailedFuture(closeCause);
+    }
+    Preconditions.checkState(pendingTurn == null || pendingTurn.isDone(),
+        "Turn already requested from client %s", name);
+    pendingTurn = SettableFuture.create();
+    return pendingTurn;
+  }
+
+  /**
+   * Delivers a turn forwarded by the coordinator.
+   */
+  void deliverTurn(PlayerTurn turn) {
+    ListenableFuture<List<Operation>> result = turn.hasTurn()
+        ? Futures.immediateFuture(turn.getTurn().getOperationList())
+        : Futures.<List<Operation>>immediateFailedFuture(
+            new IllegalArgumentException("Malformed turn"));
+    SettableFuture<List<Operation>> waiting;
+    synchronized (this) {
+      waiting = pendingTurn;
+      pendingTurn = null;
+      if (waiting == null || waiting.isDone()) {
+        receivedTurns.add(result);
+        return;
+      }
+    }
+    // Complete outside the lock, listeners may run inline and request the next turn.
+    boolean completed = turn.hasTurn()
+        ? waiting.set(turn.getTurn().getOperationList())
+        : waiting.setException(new IllegalArgumentException("Malformed turn"));
+    if (!completed) {
+      synchronized (this) {
+        receivedTurns.add(result);
+      }
+    }
+  }
+
+  /**
+   * Marks the client as disconnected from the coordinator, or the coordinator as lost.
+   */
+  void disconnect(IOException cause) {
+    SettableFuture<List<Operation>> waiting;
+    List<Runnable> listeners;
+    synchronized (this) {
+      if (closeCause != null) {
+        return;
+      }
+      closeCause = cause;
+      waiting = pendingTurn;
+      pendingTurn = null;
+      listeners = disconnectListeners;
+      disconnectListeners = null;
+    }
+    if (waiting != null) {
+      waiting.setException(cause);
+    }
+    for (Runnable listener : listeners) {
+      listener.run();
+    }
+  }
+
+  @Override
+  public void close(IOException cause) {
+    disconnect(cause);
+  }
+
+  @Override
+  public void transmit(ViewFrame frame) throws IOException {
+    synchronized (this) {
+      if (closeCause != null) {
+        throw closeCause;
+      }
+    }
+    link.send(WorkerMessage.newBuilder()
+        .setView(PlayerView.newBuilder()
+            .setMatchId(matchId)
+            .setPlayerIndex(playerIndex)
+            .setView(frame.getView()))
+        .build());
+  }
+
+  @Override
+  public synchronized boolean isConnected() {
+    return closeCause == null;
+  }
+
+  @Override
+  public void addDisconnectListener(Runnable listener) {
+    synchronized (this) {
+      if (closeCause == null) {
+        disconnectListeners.add(listener);
+        return;
+      }
+    }
+    listener.run();
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public long getBytesSent() {
+    return 0;
+  }
+
+  @Override
+  public long getBytesReceived() {
+    return 0;
+  }
+}
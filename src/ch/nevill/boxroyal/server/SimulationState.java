@@ -0,0 +1,298 @@
+package ch.nevill.boxroyal.server;
+
+import java.util.Arrays;
+
+import ch.nevill.boxroyal.proto.Bullet;
+import ch.nevill.boxroyal.proto.Direction;
+import ch.nevill.boxroyal.proto.MatchConfig;
+import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.proto.MatchStateOrBuilder;
+import ch.nevill.boxroyal.proto.Size;
+import ch.nevill.boxroyal.proto.Soldier;
+import ch.nevill.boxroyal.proto.SoldierOrBuilder;
+import ch.nevill.boxroyal.proto.StateUpdate;
+
+/**
+ * Mutable state of a running match, kept in primitive arrays and updated in place by
+ * {@link StepSimulator}. Protobuf messages are only created when the state is sent or logged.
+ * Boxes are not part of it, they never change during a match.
+ */
+final class SimulationState {
+  private final MatchConfig config;
+  private final Size size;
+  private int round;
+
+  private final int soldierCount;
+  private final int[] soldierIds;
+  private final int[] soldierPlayers;
+  private final int[] soldierXs;
+  private final int[] soldierYs;
+  // Positions at the start of the current round.
+  private final int[] entryXs;
+  private final int[] entryYs;
+  // Soldier ids in ascending order, and the index of each in the arrays above.
+  private final int[] sortedIds;
+  private final int[] sortedIndices;
+
+  // Bullets shot in the current round, and the ones shot in the previous round.
+  private Bullets bullets;
+  private Bullets entryBullets;
+
+  private static final class Bullets {
+    int count = 0;
+    int[] xs;
+    int[] ys;
+    int[] owners;
+    int[] directions;
+
+    Bullets(int capacity) {
+      xs = new int[capacity];
+      ys = new int[capacity];
+      owners = new int[capacity];
+      directions = new int[capacity];
+    }
+
+    void add(int x, int y, int owner, int direction) {
+      if (count == xs.length) {
+        int capacity = Math.max(4, count * 2);
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        owners = Arrays.copyOf(owners, capacity);
+        directions = Arrays.copyOf(directions, capacity);
+      }
+      xs[count] = x;
+      ys[count] = y;
+      owners[count] = owner;
+      directions[count] = direction;
+      ++count;
+    }
+  }
+
+  private SimulationState(MatchStateOrBuilder state) {
+    config = state.getConfig();
+    size = state.getSize();
+    round = state.getRound();
+
+    soldierCount = state.getSoldierCount();
+    soldierIds = new int[soldierCount];
+    soldierPlayers = new int[soldierCount];
+    soldierXs = new int[soldierCount];
+    soldierYs = new int[soldierCount];
+    for (int i = 0; i < soldierCount; i++) {
+      SoldierOrBuilder soldier = state.getSoldierOrBuilder(i);
+      soldierIds[i] = soldier.getSoldierId();
+      soldierPlayers[i] = soldier.getPlayerId();
+      soldierXs[i] = soldier.getPosition().getX();
+      soldierYs[i] = soldier.getPosition().getY();
+    }
+    entryXs = soldierXs.clone();
+    entryYs = soldierYs.clone();
+
+    // Sort (id, index) pairs packed into longs.
+    long[] idIndex = new long[soldierCount];
+    for (int i = 0; i < soldierCount; i++) {
+      idIndex[i] = ((long) soldierIds[i] << 32) | i;
+    }
+    Arrays.sort(idIndex);
+    sortedIds = new int[soldierCount];
+    sortedIndices = new int[soldierCount];
+    for (int i = 0; i < soldierCount; i++) {
+      sortedIds[i] = (int) (idIndex[i] >> 32);
+      sortedIndices[i] = (int) idIndex[i];
+    }
+
+    int capacity = Math.max(soldierCount, state.getBulletCount());
+    bullets = new Bullets(capacity);
+    entryBullets = new Bullets(capacity);
+    for (Bullet bullet : state.getBulletList()) {
+      bullets.add(bullet.getPosition().getX(), bullet.getPosition().getY(), bullet.getOwnerId(),
+          bullet.getDirection().getNumber());
+    }
+  }
+
+  /**
+   * Creates the simulation state for a match state. Boxes in the state are ignored.
+   */
+  static SimulationState fromState(MatchStateOrBuilder state) {
+    return new SimulationState(state);
+  }
+
+  MatchConfig getConfig() {
+    return config;
+  }
+
+  int getMatchId() {
+    return config.getMatchId();
+  }
+
+  int getRound() {
+    return round;
+  }
+
+  void setRound(int round) {
+    this.round = round;
+  }
+
+  int getWidth() {
+    return size.getWidth();
+  }
+
+  int getHeight() {
+    return size.getHeight();
+  }
+
+  /**
+   * Marks the start of a round: positions are remembered for {@link #hasSoldierMoved}, and the
+   * bullets shot in the previous round become the ones resolved in this round.
+   */
+  void beginRound() {
+    System.arraycopy(soldierXs, 0, entryXs, 0, soldierCount);
+    System.arraycopy(soldierYs, 0, entryYs, 0, soldierCount);
+    Bullets previous = entryBullets;
+    entryBullets = bullets;
+    bullets = previous;
+    bullets.count = 0;
+  }
+
+  int getSoldierCount() {
+    return soldierCount;
+  }
+
+  /**
+   * Returns the index of the soldier with the given id, or -1 if there is none.
+   */
+  int indexOfSoldier(int soldierId) {
+    int i = Arrays.binarySearch(sortedIds, soldierId);
+    return i < 0 ? -1 : sortedIndices[i];
+  }
+
+  int getSoldierId(int soldier) {
+    return soldierIds[soldier];
+  }
+
+  int getSoldierPlayer(int soldier) {
+    return soldierPlayers[soldier];
+  }
+
+  int getSoldierX(int soldier) {
+    return soldierXs[soldier];
+  }
+
+  int getSoldierY(int soldier) {
+    return soldierYs[soldier];
+  }
+
+  /**
+   * Returns the position of a soldier as a packed point, see {@link GeometryUtils}.
+   */
+  int getSoldierPosition(int soldier) {
+    return GeometryUtils.pack(soldierXs[soldier], soldierYs[soldier]);
+  }
+
+  void moveSoldier(int soldier, int position) {
+    soldierXs[soldier] = GeometryUtils.getX(position);
+    soldierYs[soldier] = GeometryUtils.getY(position);
+  }
+
+  boolean hasSoldierMoved(int soldier) {
+    return soldierXs[soldier] != entryXs[soldier] || soldierYs[soldier] != entryYs[soldier];
+  }
+
+  /**
+   * Returns an index over the live soldier positions. It has to be rebuilt after soldiers moved.
+   */
+  SoldierIndex newSoldierIndex() {
+    return new SoldierIndex(soldierXs, soldierYs, soldierCount, getWidth(), getHeight());
+  }
+
+  void addBullet(int x, int y, int ownerId, Direction direction) {
+    bullets.add(x, y, ownerId, direction.getNumber());
+  }
+
+  int getBulletCount() {
+    return bullets.count;
+  }
+
+  int getBulletX(int bullet) {
+    return bullets.xs[bullet];
+  }
+
+  int getBulletY(int bullet) {
+    return bullets.ys[bullet];
+  }
+
+  int getBulletOwner(int bullet) {
+    return bullets.owners[bullet];
+  }
+
+  int getEntryBulletCount() {
+    return entryBullets.count;
+  }
+
+  int getEntryBulletX(int bullet) {
+    return entryBullets.xs[bullet];
+  }
+
+  int getEntryBulletY(int bullet) {
+    return entryBullets.ys[bullet];
+  }
+
+  int getEntryBulletOwner(int bullet) {
+    return entryBullets.owners[bullet];
+  }
+
+  Direction getEntryBulletDirection(int bullet) {
+    return Direction.valueOf(entryBullets.directions[bullet]);
+  }
+
+  /**
+   * Writes config, round, size, soldiers and bullets to the given state.
+   */
+  void writeTo(MatchState.Builder state) {
+    state.setConfig(config).setRound(round).setSize(size);
+    for (int i = 0; i < soldierCount; i++) {
+      writeSoldier(i, state.addSoldierBuilder());
+    }
+    for (int i = 0; i < bullets.count; i++) {
+      writeBullet(i, state.addBulletBuilder());
+    }
+  }
+
+  MatchState toMatchState() {
+    MatchState.Builder state = MatchState.newBuilder();
+    writeTo(state);
+    return state.build();
+  }
+
+  /**
+   * Writes the changes of the current round: the round id, the soldiers which moved and all
+   * bullets.
+   */
+  void writeUpdate(StateUpdate.Builder update) {
+    update.setRound(round);
+    for (int i = 0; i < soldierCount; i++) {
+      if (hasSoldierMoved(i)) {
+        writeSoldier(i, update.addSoldierBuilder());
+      }
+    }
+    for (int i = 0; i < bullets.count; i++) {
+      writeBullet(i, update.addBulletBuilder());
+    }
+  }
+
+  void writeSoldier(int soldier, Soldier.Builder builder) {
+    builder.setSoldierId(soldierIds[soldier])
+        .setPlayerId(soldierPlayers[soldier])
+        .getPositionBuilder()
+            .setX(soldierXs[soldier])
+            .setY(soldierYs[soldier]);
+  }
+
+  void writeBullet(int bullet, Bullet.Builder builder) {
+    builder.setOwnerId(bullets.owners[bullet])
+        .setDirection(Direction.valueOf(bullets.directions[bullet]))
+        .getPositionBuilder()
+            .setX(bullets.xs[bullet])
+            .setY(bullets.ys[bullet]);
+  }
+}
@@ -0,0 +1,152 @@
+package ch.nevill.boxroyal.server;
+
+import java.util.Arrays;
+
+import ch.nevill.boxroyal.proto.Direction;
+
+/**
+ * Soldier positions bucketed by row and by column, so that the soldiers a bullet hits can be
+ * looked up directly instead of testing every soldier against every bullet.
+ */
+class SoldierIndex {
+  private final int width;
+  private final int height;
+  private final int count;
+  private final int[] xs;
+  private final int[] ys;
+
+  // Soldier indices ordered by (y, x, index), rowStart[y] is the first entry of row y.
+  private final int[] rowOrder;
+  private final int[] rowStart;
+  // Soldier indices ordered by (x, y, index), columnStart[x] is the first entry of column x.
+  private final int[] columnOrder;
+  private final int[] columnStart;
+
+  // Scratch space for sorting, kept so that rebuilding does not allocate.
+  private final int[] partialOrder;
+  private final int[] partialStart;
+
+  /**
+   * Creates an index over the given position arrays, which are read again by every
+   * {@link #rebuild()}.
+   */
+  SoldierIndex(int[] xs, int[] ys, int count, int width, int height) {
+    this.width = width;
+    this.height = height;
+    this.count = count;
+    this.xs = xs;
+    this.ys = ys;
+
+    this.rowOrder = new int[count];
+    this.rowStart = new int[height + 1];
+    this.columnOrder = new int[count];
+    this.columnStart = new int[width + 1];
+    this.partialOrder = new int[count];
+    this.partialStart = new int[Math.max(width, height) + 1];
+    rebuild();
+  }
+
+  /**
+   * Updates the index after positions changed.
+   */
+  void rebuild() {
+    countingSort(null, xs, width, partialStart, partialOrder);
+    countingSort(partialOrder, ys, height, rowStart, rowOrder);
+    countingSort(null, ys, height, partialStart, partialOrder);
+    countingSort(partialOrder, xs, width, columnStart, columnOrder);
+  }
+
+  /**
+   * Stable sort of {@code order}, or of all indices if it is null, by {@code keys}, which must
+   * lie in [0, range). {@code start} receives the first position of every key.
+   */
+  private void countingSort(int[] order, int[] keys, int range, int[] start, int[] sorted) {
+    Arrays.fill(start, 0, range + 1, 0);
+    for (int i = 0; i < count; i++) {
+      ++start[keys[i] + 1];
+    }
+    for (int k = 0; k < range; k++) {
+      start[k + 1] += start[k];
+    }
+    // Use start[k] as the insertion point of key k, which leaves it at the start of key k + 1.
+    for (int i = 0; i < count; i++) {
+      int soldier = order == null ? i : order[i];
+      sorted[start[keys[soldier]]++] = soldier;
+    }
+    System.arraycopy(start, 0, start, 1, range);
+    start[0] = 0;
+  }
+
+  /**
+   * Writes the indices of the soldiers hit by a bullet at (x, y) travelling in the given
+   * direction to {@code hits} and returns their number. These are all soldiers on the nearest
+   * occupied cell in the path, including the bullet's own cell, in ascending index order.
+   */
+  int collectHits(int x, int y, Direction direction, int[] hits) {
+    switch (direction.getNumber()) {
+      case Direction.NORTH_VALUE:
+        return x < 0 || x >= width ? 0
+            : collectForward(columnOrder, columnStart[x], columnStart[x + 1], ys, y, hits);
+      case Direction.SOUTH_VALUE:
+        return x < 0 || x >= width ? 0
+            : collectBackward(columnOrder, columnStart[x], columnStart[x + 1], ys, y, hits);
+      case Direction.EAST_VALUE:
+        return y < 0 || y >= height ? 0
+            : collectForward(rowOrder, rowStart[y], rowStart[y + 1], xs, x, hits);
+      case Direction.WEST_VALUE:
+        return y < 0 || y >= height ? 0
+            : collectBackward(rowOrder, rowStart[y], rowStart[y + 1], xs, x, hits);
+      default:
+        throw new IllegalArgumentException();
+    }
+  }
+
+  // Nearest soldiers in [from, to) with coordinate >= origin.
+  private static int collectForward(int[] order, int from, int to, int[] coordinates, int origin,
+      int[] hits) {
+    int first = lowerBound(order, from, to, coordinates, origin);
+    if (first == to) {
+      return 0;
+    }
+    int target = coordinates[order[first]];
+    int count = 0;
+    for (int i = first; i < to && coordinates[order[i]] == target; i++) {
+      hits[count++] = order[i];
+    }
+    return count;
+  }
+
+  // Nearest soldiers in [from, to) with coordinate <= origin.
+  private static int collectBackward(int[] order, int from, int to, int[] coordinates, int origin,
+      int[] hits) {
+    int last = lowerBound(order, from, to, coordinates, origin + 1) - 1;
+    if (last < from) {
+      return 0;
+    }
+    int target = coordinates[order[last]];
+    int first = last;
+    while (first > from && coordinates[order[first - 1]] == target) {
+      --first;
+    }
+    int count = 0;
+    for (int i = first; i <= last; i++) {
+      hits[count++] = order[i];
+    }
+    return count;
+  }
+
+  // First position in [from, to) whose coordinate is >= value.
+  private static int lowerBound(int[] order, int from, int to, int[] coordinates, int value) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (coordinates[order[mid]] < value) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+}
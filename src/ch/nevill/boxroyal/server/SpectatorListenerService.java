@@ -0,0 +1,92 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import ch.nevill.boxroyal.proto.ClientRequest;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.AbstractExecutionThreadService;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+/**
+ * Accepts spectator connections. A spectator first sends a {@link ClientRequest} naming the match
+ * to follow, and from then on only receives views.
+ */
+public class SpectatorListenerService extends AbstractExecutionThreadService {
+  private static final Log log = LogFactory.getLog(SpectatorListenerService.class);
+  private static final int SERVICE_PORT = 45679;
+
+  private ServerSocketChannel serverChannel = null;
+  private final MatchRegistry registry;
+  private final ClientEventLoop eventLoop;
+
+  public SpectatorListenerService(MatchRegistry registry, ClientEventLoop eventLoop) {
+    this.registry = registry;
+    this.eventLoop = eventLoop;
+  }
+
+  @Override
+  protected void startUp() throws Exception {
+    super.startUp();
+    serverChannel = ServerSocketChannel.open();
+    serverChannel.socket().bind(new InetSocketAddress(SERVICE_PORT));
+    log.info(String.format("Listening for spectators on %s:%d",
+        serverChannel.socket().getInetAddress(), serverChannel.socket().getLocalPort()));
+  }
+
+  @Override
+  protected void run() throws Exception {
+    while (true) {
+      SocketChannel channel = serverChannel.accept();
+      final NioClient client = eventLoop.register(channel);
+      Futures.addCallback(client.receiveMessage(), new FutureCallback<byte[]>() {
+        @Override
+        public void onSuccess(byte[] message) {
+          attach(client, message);
+        }
+        @Override
+        public void onFailure(Throwable t) {
+          // The connection is already closed.
+        }
+      });
+    }
+  }
+
+  private void attach(NioClient client, byte[] message) {
+    ClientRequest request;
+    try {
+      request = ClientRequest.parseFrom(message);
+    } catch (InvalidProtocolBufferException e) {
+      client.close(new IOException("Malformed spectate request", e));
+      return;
+    }
+    if (!request.hasSpectate()) {
+      client.close(new IOException("Expected a spectate request"));
+      return;
+    }
+
+    int matchId = request.getSpectate().getMatchId();
+    Optional<MatchSimulator> match = registry.get(matchId);
+    if (!match.isPresent()) {
+      log.info(String.format("Spectator %s requested unknown match %d", client.getName(), matchId));
+      client.close(new IOException("Unknown match"));
+      return;
+    }
+    match.get().addSpectator(client);
+  }
+
+  @Override
+  protected void shutDown() throws Exception {
+    super.shutDown();
+    serverChannel.close();
+    serverChannel = null;
+  }
+}
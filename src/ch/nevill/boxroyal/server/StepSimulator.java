@@ -1,47 +1,66 @@
 package ch.nevill.boxroyal.server;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-
-import ch.nevill.boxroyal.proto.Box;
-import ch.nevill.boxroyal.proto.Bullet;
-import ch.nevill.boxroyal.proto.MatchState;
+import ch.nevill.boxroyal.arena.BoxGrid;
+import ch.nevill.boxroyal.events.MatchEventBus;
+import ch.nevill.boxroyal.metrics.Counter;
+import ch.nevill.boxroyal.metrics.MetricRegistry;
+import ch.nevill.boxroyal.proto.Direction;
 import ch.nevill.boxroyal.proto.Operation;
 import ch.nevill.boxroyal.proto.OperationError;
-import ch.nevill.boxroyal.proto.Point;
 import ch.nevill.boxroyal.proto.Round;
-import ch.nevill.boxroyal.proto.Soldier;
-import ch.nevill.boxroyal.proto.Soldier.Builder;
-import ch.nevill.boxroyal.proto.SoldierOrBuilder;
-
-import com.google.common.base.Function;
-import com.google.common.base.Predicate;
-import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Ordering;
 
+/**
+ * Applies the operations of a round to a {@link SimulationState}. One instance is used for all
+ * rounds of a match.
+ *
+ * <p>Large rounds check moves and resolve bullets on a fork-join pool. Only reads are done in
+ * parallel, all changes to the state and the round are applied in operation and bullet order
+ * afterwards, so the result is the same as when running sequentially.
+ */
 class StepSimulator {
-  private static final Log log = LogFactory.getLog(StepSimulator.class);
-
-  private final MatchState entryState;
-  private final ImmutableMap<Integer, Builder> soldierMap;
-  private final MatchState.Builder matchState;
-  private final Round.Builder round;
-  private final Set<Integer> actionedSoldiers;
-
-  public StepSimulator(ImmutableMap<Integer, Soldier.Builder> soldierMap,
-                       MatchState.Builder matchState,
-                       Round.Builder round) {
-    this.soldierMap = soldierMap;
-    this.matchState = matchState;
-    this.entryState = matchState.build();
-    this.round = round;
-    this.actionedSoldiers = new HashSet<>();
+  private static final MatchEventBus events = MatchEventBus.getDefault();
+  // Turns and bullets below this size are handled on the match thread only.
+  private static final int PARALLEL_THRESHOLD = 1024;
+  // Used by matches not already running in a fork-join pool.
+  private static final ForkJoinPool pool = new ForkJoinPool();
+
+  // Destinations of moves which have not been checked in advance, and of invalid moves. Neither
+  // is a packed point inside any grid.
+  private static final int UNCHECKED = Integer.MAX_VALUE;
+  private static final int INVALID_DESTINATION = Integer.MIN_VALUE;
+
+  // Number of operations with each result, indexed by error number.
+  private static final Counter[] ERROR_COUNTS = new Counter[OperationError.values().length];
+  static {
+    for (OperationError error : OperationError.values()) {
+      ERROR_COUNTS[error.getNumber()] =
+          MetricRegistry.getDefault().counter("operation.error." + error.name());
+    }
+  }
+
+  private final SimulationState state;
+  private final BoxGrid grid;
+  private final SoldierIndex soldierIndex;
+  private final boolean[] actionedSoldiers;
+  private final int[] hits;
+  private final int maxTurnOperations;
+  private int[] checkedDestinations = new int[0];
+  private Round.Builder round = null;
+
+  public StepSimulator(SimulationState state, BoxGrid grid) {
+    this.state = state;
+    this.grid = grid;
+    this.soldierIndex = state.newSoldierIndex();
+    this.actionedSoldiers = new boolean[state.getSoldierCount()];
+    this.hits = new int[state.getSoldierCount()];
+    int limit = state.getConfig().getMaxTurnOperations();
+    this.maxTurnOperations = limit > 0 ? limit : Math.max(1, state.getSoldierCount());
   }
 
   private int getRoundId() {
@@ -49,140 +68,291 @@ class StepSimulator {
   }
 
   private int getMatchId() {
-    return entryState.getConfig().getMatchId();
+    return state.getMatchId();
+  }
+
+  /**
+   * Returns the index of the soldier an operation of the given player acts on, or the reason it
+   * may not act encoded by {@link #rejected}.
+   */
+  private int getActingSoldier(int playerId, boolean hasSoldierId, int soldierId) {
+    if (!hasSoldierId) {
+      return rejected(OperationError.INVALID_FIELD);
+    }
+
+    int soldier = state.indexOfSoldier(soldierId);
+    if (soldier < 0) {
+      return rejected(OperationError.INVALID_ID);
+    }
+    if (state.getSoldierPlayer(soldier) != playerId) {
+      return rejected(OperationError.WRONG_PLAYER);
+    }
+    if (actionedSoldiers[soldier]) {
+      return rejected(OperationError.MULTIPLE_ACTIONS);
+    }
+    return soldier;
+  }
+
+  // Invalid operations are common with misbehaving clients, so errors are returned as values.
+  private static int rejected(OperationError error) {
+    return -1 - error.getNumber();
+  }
+
+  private static OperationError rejection(int soldier) {
+    return OperationError.valueOf(-1 - soldier);
   }
 
-  private Box getBoxAt(Point p) {
-    return entryState.getBoxList().get(p.getX() + entryState.getSize().getWidth() * p.getY());
+  /**
+   * Returns the packed point a soldier moves to, or {@link #INVALID_DESTINATION}. Only reads
+   * state, so it can be called concurrently.
+   */
+  private int getDestination(int soldier, Direction direction) {
+    int destination = GeometryUtils.move(state.getSoldierPosition(soldier), direction);
+    if (!GeometryUtils.isInArea(destination, grid.getWidth(), grid.getHeight())) {
+      return INVALID_DESTINATION;
+    }
+    if (grid.isBlocked(GeometryUtils.getX(destination), GeometryUtils.getY(destination))) {
+      return INVALID_DESTINATION;
+    }
+    return destination;
   }
 
-  private void applyOperation(int playerId, Operation operation) throws OperationException {
+  private OperationError applyOperation(int playerId, Operation operation, int destination) {
     if (operation.hasMove() == operation.hasShoot()) {
-      throw new OperationException(OperationError.INVALID_FIELD);
+      return OperationError.INVALID_FIELD;
     }
 
     if (operation.hasShoot()) {
-      if (!operation.getShoot().hasSoldierId()) {
-        throw new OperationException(OperationError.INVALID_FIELD);
-      }
-
-      Soldier.Builder soldier = soldierMap.get(operation.getShoot().getSoldierId());
-      if (soldier == null) {
-        throw new OperationException(OperationError.INVALID_ID);
-      }
-      if (soldier.getPlayerId() != playerId) {
-        throw new OperationException(OperationError.WRONG_PLAYER);
-      }
-      if (actionedSoldiers.contains(soldier.getSoldierId())) {
-        throw new OperationException(OperationError.MULTIPLE_ACTIONS);
+      int soldier = getActingSoldier(playerId, operation.getShoot().hasSoldierId(),
+          operation.getShoot().getSoldierId());
+      if (soldier < 0) {
+        return rejection(soldier);
       }
 
-      matchState.addBulletBuilder()
-          .setPosition(soldier.getPosition())
-          .setDirection(operation.getShoot().getDirection());
-      actionedSoldiers.add(soldier.getSoldierId());
+      state.addBullet(state.getSoldierX(soldier), state.getSoldierY(soldier), playerId,
+          operation.getShoot().getDirection());
+      actionedSoldiers[soldier] = true;
     }
 
     if (operation.hasMove()) {
-      if (!operation.getMove().hasSoldierId()) {
-        throw new OperationException(OperationError.INVALID_FIELD);
+      int soldier = getActingSoldier(playerId, operation.getMove().hasSoldierId(),
+          operation.getMove().getSoldierId());
+      if (soldier < 0) {
+        return rejection(soldier);
       }
 
-      Soldier.Builder soldier = soldierMap.get(operation.getMove().getSoldierId());
-      if (soldier == null) {
-        throw new OperationException(OperationError.INVALID_ID);
-      }
-      if (soldier.getPlayerId() != playerId) {
-        throw new OperationException(OperationError.WRONG_PLAYER);
+      if (destination == UNCHECKED) {
+        destination = getDestination(soldier, operation.getMove().getDirection());
       }
-      if (actionedSoldiers.contains(soldier.getSoldierId())) {
-        throw new OperationException(OperationError.MULTIPLE_ACTIONS);
+      if (destination == INVALID_DESTINATION) {
+        return OperationError.INVALID_MOVEMENT;
       }
 
-      Point dest = GeometryUtils.movePointInDirection(soldier.getPosition(), operation.getMove().getDirection());
-      if (!GeometryUtils.isPointInArea(dest, matchState.getSize())) {
-        throw new OperationException(OperationError.INVALID_MOVEMENT);
-      }
+      state.moveSoldier(soldier, destination);
+      actionedSoldiers[soldier] = true;
+      events.move(getMatchId(), getRoundId(), playerId, state.getSoldierId(soldier),
+          GeometryUtils.getX(destination), GeometryUtils.getY(destination));
+    }
+    return OperationError.NONE;
+  }
 
-      Box destBox = getBoxAt(dest);
-      if (destBox.getBlocking()) {
-        throw new OperationException(OperationError.INVALID_MOVEMENT);
-      }
+  /**
+   * Starts a new round, operations and their results are recorded in {@code round}.
+   */
+  void runPreStep(Round.Builder round) {
+    this.round = round;
+    state.beginRound();
+    Arrays.fill(actionedSoldiers, false);
+  }
 
-      soldier.setPosition(dest);
-      actionedSoldiers.add(soldier.getSoldierId());
+  /**
+   * Applies the operations of a player's turn in order. Operations beyond the limit of the match
+   * are dropped and recorded as a single entry.
+   */
+  void runPlayerOperations(int playerId, List<Operation> operations) {
+    int dropped = operations.size() - maxTurnOperations;
+    if (dropped <= 0) {
+      runTurn(playerId, operations);
+      return;
     }
-  }
 
-  void runPreStep() {
-    matchState.clearBullet();
+    runTurn(playerId, operations.subList(0, maxTurnOperations));
+    ERROR_COUNTS[OperationError.TOO_MANY_OPERATIONS.getNumber()].add(dropped);
+    round.addOperationBuilder()
+        .setPlayerId(playerId)
+        .setError(OperationError.TOO_MANY_OPERATIONS)
+        .setDroppedCount(dropped);
+    events.operationsDropped(getMatchId(), getRoundId(), playerId, dropped);
   }
 
-  void runPlayerOperation(int playerId, Operation operation) {
-    OperationError error = OperationError.NONE;
-    try {
-      if (getRoundId() != operation.getRoundId()) {
-        error = OperationError.WRONG_ROUND;
-      }
-      else {
-        applyOperation(playerId, operation);
+  private void runTurn(int playerId, List<Operation> operations) {
+    int count = operations.size();
+    if (count < PARALLEL_THRESHOLD) {
+      for (Operation operation : operations) {
+        runPlayerOperation(playerId, operation, UNCHECKED);
       }
-    } catch (OperationException exc) {
-      error = exc.getCode();
+      return;
     }
 
+    // A soldier's own position only changes with its first valid action, so destinations can be
+    // checked against the positions before the turn.
+    if (checkedDestinations.length < count) {
+      checkedDestinations = new int[count];
+    }
+    invoke(new MoveCheck(operations, 0, count));
+    for (int i = 0; i < count; i++) {
+      runPlayerOperation(playerId, operations.get(i), checkedDestinations[i]);
+    }
+  }
+
+  private void runPlayerOperation(int playerId, Operation operation, int destination) {
+    OperationError error = getRoundId() != operation.getRoundId()
+        ? OperationError.WRONG_ROUND : applyOperation(playerId, operation, destination);
+
+    countError(error);
     round.addOperationBuilder()
         .setOperation(operation)
         .setError(error)
         .setPlayerId(playerId);
   }
 
+  static void countError(OperationError error) {
+    ERROR_COUNTS[error.getNumber()].increment();
+  }
+
   void runPostStep() {
-    List<Bullet> oldBullets = entryState.getBulletList();
-    for (final Bullet bullet : oldBullets) {
-
-      final Iterable<Soldier.Builder> soldiersInPath =
-          Iterables.filter(matchState.getSoldierBuilderList(), new Predicate<Soldier.Builder>() {
-            @Override
-            public boolean apply(Soldier.Builder soldier) {
-              return GeometryUtils.isPointInPath(bullet.getPosition(), bullet.getDirection(), soldier.getPosition());
-            }
-          });
-
-      if (Iterables.isEmpty(soldiersInPath)) {
-        continue;
+    int bulletCount = state.getEntryBulletCount();
+    if (bulletCount == 0) {
+      return;
+    }
+
+    soldierIndex.rebuild();
+    if (bulletCount >= PARALLEL_THRESHOLD) {
+      BulletResolution resolution = new BulletResolution(0, bulletCount);
+      invoke(resolution);
+      resolution.report();
+      return;
+    }
+
+    for (int bullet = 0; bullet < bulletCount; bullet++) {
+      int hitCount = soldierIndex.collectHits(state.getEntryBulletX(bullet),
+          state.getEntryBulletY(bullet), state.getEntryBulletDirection(bullet), hits);
+      for (int i = 0; i < hitCount; i++) {
+        reportHit(bullet, hits[i]);
       }
+    }
+  }
 
-      final Ordering<SoldierOrBuilder> proximityOrdering = Ordering.natural().onResultOf(
-          new Function<SoldierOrBuilder, Integer>() {
-            @Override
-            public Integer apply(SoldierOrBuilder soldier) {
-              return Math.abs(soldier.getPosition().getX() - bullet.getPosition().getX())
-                  + Math.abs(soldier.getPosition().getY() - bullet.getPosition().getY());
-            }
-          });
-
-      final List<Soldier.Builder> hitOrderedSoldiers =
-          proximityOrdering.sortedCopy(soldiersInPath);
-      List<Soldier.Builder> hits = new ArrayList<>();
-      for (Soldier.Builder target : hitOrderedSoldiers) {
-        if (!target.getPosition().equals(hitOrderedSoldiers.get(0).getPosition())) {
-          break;
-        }
-        hits.add(target);
+  private void reportHit(int bullet, int hit) {
+    int ownerId = state.getEntryBulletOwner(bullet);
+    if (state.getSoldierPlayer(hit) == ownerId) {
+      events.block(getMatchId(), getRoundId(), state.getSoldierId(hit), ownerId);
+    }
+    else {
+      // TODO: "kill" target
+      events.kill(getMatchId(), getRoundId(), state.getSoldierId(hit), ownerId);
+    }
+  }
+
+  private static void invoke(ForkJoinTask<?> task) {
+    if (ForkJoinTask.inForkJoinPool()) {
+      task.invoke();
+    } else {
+      pool.invoke(task);
+    }
+  }
+
+  /**
+   * Checks the destinations of the moves in a range of operations of a turn.
+   */
+  private final class MoveCheck extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<Operation> operations;
+    private final int from;
+    private final int to;
+
+    MoveCheck(List<Operation> operations, int from, int to) {
+      this.operations = operations;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > PARALLEL_THRESHOLD) {
+        int middle = (from + to) >>> 1;
+        invokeAll(new MoveCheck(operations, from, middle), new MoveCheck(operations, middle, to));
+        return;
       }
 
-      for (Soldier.Builder hit : hits) {
-        if (hit.getPlayerId() == bullet.getOwnerId()) {
-          log.info(String.format("Match %d:%d: Soldier %d blocked bullet from %d.",
-              getMatchId(), getRoundId(), hit.getSoldierId(), bullet.getOwnerId()));
+      for (int i = from; i < to; i++) {
+        Operation operation = operations.get(i);
+        checkedDestinations[i] = UNCHECKED;
+        if (operation.hasMove() && operation.getMove().hasSoldierId()) {
+          int soldier = state.indexOfSoldier(operation.getMove().getSoldierId());
+          if (soldier >= 0) {
+            checkedDestinations[i] = getDestination(soldier, operation.getMove().getDirection());
+          }
         }
-        else {
-          // TODO: "kill" target
-          log.info(String.format("Match %d:%d: Soldier %d killed by %d.",
-              getMatchId(), getRoundId(), hit.getSoldierId(), bullet.getOwnerId()));
+      }
+    }
+  }
+
+  /**
+   * Finds the soldiers hit by a range of bullets. Hits are reported afterwards by
+   * {@link #report()}, in bullet order.
+   */
+  private final class BulletResolution extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int from;
+    private final int to;
+    private BulletResolution left = null;
+    private BulletResolution right = null;
+    // Pairs of bullet and soldier index.
+    private int[] results = null;
+    private int resultCount = 0;
+
+    BulletResolution(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > PARALLEL_THRESHOLD) {
+        int middle = (from + to) >>> 1;
+        left = new BulletResolution(from, middle);
+        right = new BulletResolution(middle, to);
+        invokeAll(left, right);
+        return;
+      }
+
+      int[] rangeHits = new int[state.getSoldierCount()];
+      results = new int[2 * (to - from)];
+      for (int bullet = from; bullet < to; bullet++) {
+        int hitCount = soldierIndex.collectHits(state.getEntryBulletX(bullet),
+            state.getEntryBulletY(bullet), state.getEntryBulletDirection(bullet), rangeHits);
+        for (int i = 0; i < hitCount; i++) {
+          if (resultCount + 2 > results.length) {
+            results = Arrays.copyOf(results, results.length * 2);
+          }
+          results[resultCount++] = bullet;
+          results[resultCount++] = rangeHits[i];
         }
       }
     }
+
+    void report() {
+      if (left != null) {
+        left.report();
+        right.report();
+        return;
+      }
+      for (int i = 0; i < resultCount; i += 2) {
+        reportHit(results[i], results[i + 1]);
+      }
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,90 @@
+package ch.nevill.boxroyal.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import ch.nevill.boxroyal.proto.View;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.protobuf.CodedOutputStream;
+
+/**
+ * A view together with its length-delimited wire encoding. The encoding is computed at most once,
+ * however many clients the frame is sent to, and every client writes from its own read-only
+ * duplicate of the shared buffer.
+ *
+ * <p>A frame with an update can also supply a frame with the full state after the update, for
+ * clients which missed earlier updates.
+ */
+final class ViewFrame {
+  private final View view;
+  private final Supplier<ViewFrame> fullStateFrame;
+  private ByteBuffer encoded = null;
+
+  ViewFrame(View view) {
+    this(view, null);
+  }
+
+  /**
+   * @param fullStateFrame supplies the full state frame, only called when it is needed
+   */
+  ViewFrame(View view, Supplier<ViewFrame> fullStateFrame) {
+    this.view = view;
+    this.fullStateFrame = fullStateFrame;
+  }
+
+  View getView() {
+    return view;
+  }
+
+  /**
+   * Returns a frame with the full state after this one, which is this frame if it already
+   * contains the full state.
+   */
+  Optional<ViewFrame> getFullStateFrame() {
+    if (view.hasState()) {
+      return Optional.of(this);
+    }
+    if (fullStateFrame == null) {
+      return Optional.absent();
+    }
+    return Optional.of(fullStateFrame.get());
+  }
+
+  /**
+   * Returns whether players answer this view with a turn, which they do for every view but the
+   * last of a match.
+   */
+  boolean expectsTurn() {
+    int round = view.hasState() ? view.getState().getRound() : view.getUpdate().getRound();
+    return round < MatchSimulator.MAX_ROUNDS;
+  }
+
+  /**
+   * Returns a new buffer positioned at the start of the encoded frame.
+   */
+  ByteBuffer newBuffer() {
+    return getEncoded().duplicate();
+  }
+
+  private synchronized ByteBuffer getEncoded() {
+    if (encoded == null) {
+      int size = view.getSerializedSize();
+      byte[] frame = new byte[CodedOutputStream.computeRawVarint32Size(size) + size];
+      CodedOutputStream output = CodedOutputStream.newInstance(frame);
+      try {
+        output.writeRawVarint32(size);
+        view.writeTo(output);
+      } catch (IOException e) {
+        throw new IllegalStateException("Serializing to a byte array threw an IOException", e);
+      }
+      output.checkNoSpaceLeft();
+
+      // Kept on the heap: the channel copies each write into a direct buffer it caches per
+      // thread, which is cheaper than allocating direct memory for every frame.
+      encoded = ByteBuffer.wrap(frame).asReadOnlyBuffer();
+    }
+    return encoded;
+  }
+}